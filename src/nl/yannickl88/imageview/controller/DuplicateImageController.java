@@ -1,83 +1,195 @@
 package nl.yannickl88.imageview.controller;
 
 import nl.yannickl88.imageview.image.DuplicateImageChecker;
+import nl.yannickl88.imageview.image.DuplicateIndex;
 import nl.yannickl88.imageview.model.Image;
 import nl.yannickl88.imageview.model.Model;
 import nl.yannickl88.imageview.view.DuplicateImagesView;
 
+import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Controller for the {@see DuplicateImagesView}
+ * Controller for the {@see DuplicateImagesView}. Until a full check is started, the duplicates found while images
+ * were added to the library are shown.
  */
 public class DuplicateImageController {
+    private final Model model;
+    private final DuplicateImagesView view;
     private final DuplicateImageChecker checker;
-    private final ArrayList<DuplicateImageChecker.Duplicate> removedDuplicates;
+    private final HashSet<Integer> mergedIds;
+    private final AtomicBoolean updatePending;
+    private final ExecutorService merger;
+    private boolean hasChecked = false;
 
     public DuplicateImageController(Model model, DuplicateImagesView view) {
-        removedDuplicates = new ArrayList<>();
+        this.model = model;
+        this.view = view;
 
-        checker = new DuplicateImageChecker();
+        mergedIds = new HashSet<>();
+        updatePending = new AtomicBoolean(false);
+        merger = Executors.newSingleThreadExecutor(r -> new Thread(r, "duplicate-merge"));
+
+        checker = new DuplicateImageChecker(model.getSignatureStore());
         checker.addProgressListener(new DuplicateImageChecker.ProgressListener() {
+            // The checker reports from its own threads, the view is only updated on the event dispatch thread
             @Override
             public void onStart() {
-                view.setStarted(true);
+                SwingUtilities.invokeLater(() -> view.setStarted(true));
             }
 
             @Override
             public void onProgress(double completion) {
-                view.setProgress(completion);
+                SwingUtilities.invokeLater(() -> view.setProgress(completion));
             }
 
             @Override
             public void onComplete() {
-                view.setStarted(false);
-                view.setProgress(1.0);
+                SwingUtilities.invokeLater(() -> {
+                    view.setStarted(false);
+                    view.setProgress(1.0);
+                });
+
+                model.saveSignatures();
             }
 
             @Override
-            public void onResultChange() {
-                ArrayList<DuplicateImageChecker.Duplicate> results = new ArrayList<>(checker.getResults());
-                results.removeAll(removedDuplicates);
+            public void onCancel() {
+                SwingUtilities.invokeLater(() -> view.setStarted(false));
+            }
 
-                view.updateResults(results);
+            @Override
+            public void onResultChange() {
+                scheduleUpdate();
             }
         });
 
+        DuplicateIndex.DuplicateChangeListener duplicateListener = this::scheduleUpdate;
+        model.addDuplicateChangeListener(duplicateListener);
+
         view.setHandler(new DuplicateImagesView.ActionHandler() {
             @Override
             public void onStart() {
+                hasChecked = true;
                 checker.checkImages(model.getAllImages());
             }
 
+            @Override
+            public void onStop() {
+                checker.cancel();
+            }
+
+            @Override
+            public void onClose() {
+                checker.cancel();
+                model.removeDuplicateChangeListener(duplicateListener);
+
+                // Merges which have been started are still completed
+                merger.shutdown();
+            }
+
             @Override
             public void onMerge(DuplicateImageChecker.Duplicate duplicate) {
-                // keep the oldest, remove the rest.
-                Image oldest = null;
+                merge(Collections.singletonList(duplicate));
+            }
 
-                for (Image i : duplicate.duplicates) {
-                    if (oldest == null || oldest.metadata.ctime < i.metadata.ctime) {
-                        oldest = i;
-                    }
-                }
+            @Override
+            public void onMergeAll() {
+                List<DuplicateImageChecker.Duplicate> results = hasChecked ? checker.getResults() : model.getDuplicates();
+                results.removeIf(d -> mergedIds.contains(d.id));
 
-                for (Image i : duplicate.duplicates) {
-                    if (oldest == i) {
-                        continue;
-                    }
+                int files = 0;
 
-                    model.deleteImage(i);
+                for (DuplicateImageChecker.Duplicate d : results) {
+                    files += d.duplicates.size() - 1;
                 }
 
-                removedDuplicates.add(duplicate);
+                if (!results.isEmpty() && view.confirmMergeAll(results.size(), files)) {
+                    merge(results);
+                }
+            }
+        });
 
-                ArrayList<DuplicateImageChecker.Duplicate> results = new ArrayList<>(checker.getResults());
-                results.removeAll(removedDuplicates);
+        updateResults();
+        view.open();
+    }
+
+    /**
+     * Merge groups of duplicates by keeping the oldest image of each group and deleting the rest. All images are deleted
+     * in a single batch in the background, groups of which a file could not be deleted are shown again.
+     */
+    private void merge(List<DuplicateImageChecker.Duplicate> duplicates) {
+        ArrayList<Image> remove = new ArrayList<>();
+        HashMap<Image, Integer> groupOf = new HashMap<>();
+
+        for (DuplicateImageChecker.Duplicate duplicate : duplicates) {
+            // keep the oldest, remove the rest.
+            Image oldest = null;
+
+            for (Image i : duplicate.duplicates) {
+                if (oldest == null || oldest.metadata.ctime > i.metadata.ctime) {
+                    oldest = i;
+                }
+            }
 
-                view.updateResults(results);
+            for (Image i : duplicate.duplicates) {
+                if (oldest != i) {
+                    remove.add(i);
+                    groupOf.put(i, duplicate.id);
+                }
             }
+
+            mergedIds.add(duplicate.id);
+        }
+
+        updateResults();
+
+        merger.execute(() -> {
+            HashSet<Image> deleted = new HashSet<>(model.deleteImages(remove));
+
+            SwingUtilities.invokeLater(() -> {
+                int failed = 0;
+
+                for (Image i : remove) {
+                    if (!deleted.contains(i)) {
+                        mergedIds.remove(groupOf.get(i));
+                        failed++;
+                    }
+                }
+
+                updateResults();
+                view.showMergeResult(deleted.size(), failed);
+            });
         });
+    }
 
-        view.open();
+    /**
+     * Update the results on the event dispatch thread. Changes which arrive before the update has run are combined into
+     * a single update.
+     */
+    private void scheduleUpdate() {
+        if (updatePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                updatePending.set(false);
+                updateResults();
+            });
+        }
+    }
+
+    /**
+     * Show the results of the full check if one has been started, else the duplicates known by the model.
+     */
+    private void updateResults() {
+        List<DuplicateImageChecker.Duplicate> results = hasChecked ? checker.getResults() : model.getDuplicates();
+        results.removeIf(d -> mergedIds.contains(d.id));
+
+        view.updateResults(results);
     }
 }
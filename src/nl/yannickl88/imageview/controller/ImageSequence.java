@@ -0,0 +1,135 @@
+package nl.yannickl88.imageview.controller;
+
+import nl.yannickl88.imageview.model.Image;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Ordered sequence of images which can be navigated. Each image is mapped to its position so finding the neighbours of
+ * an image does not require searching through the whole list.
+ *
+ * The position map is built lazily after the sequence is replaced, and kept up-to-date when single images are removed.
+ */
+public class ImageSequence {
+    private final ArrayList<Image> images = new ArrayList<>();
+    private final HashMap<Image, Integer> positions = new HashMap<>();
+    private boolean indexed = true;
+
+    /**
+     * Replace the contents of the sequence.
+     */
+    public synchronized void set(List<Image> images) {
+        this.images.clear();
+        this.images.addAll(images);
+        this.positions.clear();
+
+        indexed = false;
+    }
+
+    /**
+     * Add an image to the end of the sequence.
+     */
+    public synchronized void add(Image image) {
+        images.add(image);
+
+        if (indexed) {
+            positions.put(image, images.size() - 1);
+        }
+    }
+
+    /**
+     * Remove an image from the sequence. Only the positions of the images after the removed one are updated.
+     */
+    public synchronized void remove(Image image) {
+        int index = indexOf(image);
+
+        if (index < 0) {
+            return;
+        }
+
+        images.remove(index);
+        positions.remove(image);
+
+        for (int i = index; i < images.size(); i++) {
+            positions.put(images.get(i), i);
+        }
+    }
+
+    /**
+     * Remove all images from the sequence.
+     */
+    public synchronized void clear() {
+        images.clear();
+        positions.clear();
+
+        indexed = true;
+    }
+
+    public synchronized int size() {
+        return images.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return images.isEmpty();
+    }
+
+    public synchronized Image get(int index) {
+        return images.get(index);
+    }
+
+    public synchronized boolean contains(Image image) {
+        return indexOf(image) >= 0;
+    }
+
+    /**
+     * Return the position of the image in the sequence, or -1 when the image is not part of it.
+     */
+    public synchronized int indexOf(Image image) {
+        if (!indexed) {
+            for (int i = 0; i < images.size(); i++) {
+                positions.put(images.get(i), i);
+            }
+
+            indexed = true;
+        }
+
+        Integer index = positions.get(image);
+
+        return null == index ? -1 : index;
+    }
+
+    /**
+     * Return the image after the given image, or {@code null} when there is none.
+     */
+    public synchronized Image next(Image image) {
+        int index = indexOf(image);
+
+        if (index < 0 || index + 1 >= images.size()) {
+            return null;
+        }
+
+        return images.get(index + 1);
+    }
+
+    /**
+     * Return the image before the given image, or {@code null} when there is none.
+     */
+    public synchronized Image previous(Image image) {
+        int index = indexOf(image);
+
+        if (index <= 0) {
+            return null;
+        }
+
+        return images.get(index - 1);
+    }
+
+    /**
+     * Return a copy of the images in the sequence.
+     */
+    public synchronized List<Image> toList() {
+        return new ArrayList<>(images);
+    }
+}
@@ -1,15 +1,18 @@
 package nl.yannickl88.imageview.controller;
 
+import nl.yannickl88.imageview.image.MemoryGovernor;
 import nl.yannickl88.imageview.model.Image;
 import nl.yannickl88.imageview.model.Model;
 import nl.yannickl88.imageview.model.library.Library;
+import nl.yannickl88.imageview.search.MetadataTable;
 import nl.yannickl88.imageview.search.SearchMatcher;
 import nl.yannickl88.imageview.view.DuplicateImagesView;
 import nl.yannickl88.imageview.view.ImageView;
 import nl.yannickl88.imageview.view.LibraryView;
 
+import javax.swing.Timer;
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
@@ -22,7 +25,11 @@ public class LibraryController {
     private final OpenHandler handler;
 
     private Image activeImage = null;
-    private final ArrayList<Image> visible = new ArrayList<>();
+    private String query = "";
+    private final ImageSequence images = new ImageSequence();
+    private final ImageSequence visible = new ImageSequence();
+    private MetadataTable table = null;
+    private final Timer memoryTimer;
 
     public interface OpenHandler {
         void onOpen(Library library);
@@ -109,27 +116,14 @@ public class LibraryController {
                 view.openLabelManager(model.getLabels(), new LibraryView.LabelChangeHandler() {
                     @Override
                     public void onLabelRemove(String label) {
-                        for (Image image : model.getAllImages()) {
-                            HashSet<String> newLabels = new HashSet<>(image.metadata.labels);
-
-                            if (newLabels.remove(label)) {
-                                image.metadata.setLabels(newLabels);
-                            }
-                        }
+                        model.removeLabel(label);
 
                         view.setAllLabels(model.getLabels());
                     }
 
                     @Override
                     public void onLabelRename(String oldLabel, String newLabel) {
-                        for (Image image : model.getAllImages()) {
-                            HashSet<String> newLabels = new HashSet<>(image.metadata.labels);
-
-                            if (newLabels.remove(oldLabel)) {
-                                newLabels.add(newLabel);
-                                image.metadata.setLabels(newLabels);
-                            }
-                        }
+                        model.renameLabel(oldLabel, newLabel);
 
                         view.setAllLabels(model.getLabels());
                     }
@@ -145,18 +139,19 @@ public class LibraryController {
             public void onDelete() {
                 if (null != activeImage) {
                     view.openDeleteConfirm(activeImage, image -> {
-                        List<Image> images = model.getAllImages();
-                        int index = images.indexOf(image);
-
-                        // Last one? back to the index
-                        if (images.size() == 1) {
-                            setActiveImage(null);
-                        } else if (index + 1 < images.size()) { // Pick the next, if possible
-                            setActiveImage(images.get(index + 1));
-                        } else {
-                            setActiveImage(images.get(index - 1)); // else the previous
+                        ImageSequence sequence = getCurrentImageSequence();
+                        Image next = sequence.next(image);
+
+                        // Pick the next, if possible, else the previous. Last one? back to the index
+                        if (null == next) {
+                            next = sequence.previous(image);
                         }
 
+                        images.remove(image);
+                        visible.remove(image);
+
+                        setActiveImage(next);
+
                         model.deleteImage(image);
                     });
                 }
@@ -172,8 +167,8 @@ public class LibraryController {
                 if (null != activeImage) {
                     view.setViewMode(ImageView.ViewMode.DETAILS);
                     view.openLabelSelector(
-                            activeImage.metadata.labels,
-                            model.getLabels(),
+                            activeImage.metadata.getLabels(),
+                            model.getLabels().keySet(),
                             labels -> activeImage.metadata.setLabels(labels)
                     );
                 }
@@ -192,38 +187,65 @@ public class LibraryController {
             }
         });
 
+        images.set(model.getAllImages());
+
+        memoryTimer = new Timer(2000, e -> view.setMemoryStatusText(MemoryGovernor.getInstance().getStatus()));
+        memoryTimer.start();
+
         view.setQuickOpenFile(model.getAdditionalLibraries());
-        view.setImages(model.getAllImages());
+        view.setImages(images.toList());
         model.startWatcher();
         view.open();
     }
 
     private void updateMatchingImages(String query) {
-        visible.clear();
-        query = query.trim();
+        this.query = query.trim();
 
-        if (query.length() == 0) {
+        filterImages();
+
+        if (this.query.length() == 0) {
             view.setAllVisible();
             updateNavigationMode();
             return;
         }
 
-        for (Image i : model.getAllImages()) {
-            if (SearchMatcher.matches(i, query)) {
-                visible.add(i);
-            }
+        view.setVisibleItems(new HashSet<>(visible.toList()));
+        updateNavigationMode();
+    }
+
+    /**
+     * Rebuild the sequence of visible images based on the current search query.
+     */
+    private void filterImages() {
+        visible.clear();
+
+        if (query.length() == 0) {
+            return;
         }
 
-        view.setVisibleItems(new HashSet<>(visible));
-        updateNavigationMode();
+        if (null == table) {
+            table = new MetadataTable(images.toList());
+        }
+
+        for (Image image : new SearchMatcher(model.getLabelDictionary(), query).filter(table)) {
+            visible.add(image);
+        }
     }
 
     private void updateImages(List<Image> images) {
-        if (null != activeImage && !images.contains(activeImage)) {
+        this.images.set(images);
+        table = null;
+
+        // While loading, the library changes for every few images, so the search is only applied once all are known
+        if (model.isLoaded()) {
+            filterImages();
+        }
+
+        if (null != activeImage && !this.images.contains(activeImage)) {
             setActiveImage(null);
         }
 
-        view.setImages(new ArrayList<>(images));
+        view.setImages(this.images.toList());
     }
 
     private void updateApplicationStatus(String status) {
@@ -231,19 +253,40 @@ public class LibraryController {
     }
 
     private void setActiveImage(Image image) {
+        Image previous = activeImage;
         activeImage = image;
 
         view.setActiveImage(image);
 
         updateNavigationMode();
         updateApplicationTitle();
+        prefetchNeighbours(previous);
+    }
+
+    /**
+     * Decode the images around the active image in the background. Images in the direction of navigation are decoded
+     * first, as those are most likely to be shown next.
+     */
+    private void prefetchNeighbours(Image previous) {
+        if (null == activeImage) {
+            return;
+        }
+
+        ImageSequence images = getCurrentImageSequence();
+        boolean backwards = null != previous && images.indexOf(previous) > images.indexOf(activeImage);
+
+        Image ahead = backwards ? images.previous(activeImage) : images.next(activeImage);
+        Image behind = backwards ? images.next(activeImage) : images.previous(activeImage);
+        Image further = null == ahead ? null : (backwards ? images.previous(ahead) : images.next(ahead));
+
+        view.prefetchImages(Arrays.asList(ahead, further, behind));
     }
 
     private void updateNavigationMode() {
         ImageView.NavigationMode navigationMode = ImageView.NavigationMode.HAS_NONE;
 
         if (null != activeImage) {
-            List<Image> images = getCurrentImageList();
+            ImageSequence images = getCurrentImageSequence();
             int index = images.indexOf(activeImage);
 
             if (index == 0) {
@@ -271,7 +314,7 @@ public class LibraryController {
             return;
         }
 
-        List<Image> images = getCurrentImageList();
+        ImageSequence images = getCurrentImageSequence();
 
         this.setActiveImage(images.get(images.size() - 1));
     }
@@ -281,11 +324,10 @@ public class LibraryController {
             return;
         }
 
-        List<Image> images = getCurrentImageList();
-        int index = images.indexOf(activeImage);
+        Image next = getCurrentImageSequence().next(activeImage);
 
-        if (index + 1 < images.size()) {
-            this.setActiveImage(images.get(index + 1));
+        if (null != next) {
+            this.setActiveImage(next);
         }
     }
 
@@ -294,11 +336,10 @@ public class LibraryController {
             return;
         }
 
-        List<Image> images = getCurrentImageList();
-        int index = images.indexOf(activeImage);
+        Image previous = getCurrentImageSequence().previous(activeImage);
 
-        if (index > 0) {
-            this.setActiveImage(images.get(index - 1));
+        if (null != previous) {
+            this.setActiveImage(previous);
         }
     }
 
@@ -307,7 +348,7 @@ public class LibraryController {
             return;
         }
 
-        this.setActiveImage(getCurrentImageList().get(0));
+        this.setActiveImage(getCurrentImageSequence().get(0));
     }
 
     private void copyActiveImage() {
@@ -335,18 +376,21 @@ public class LibraryController {
     }
 
     public void close() {
+        memoryTimer.stop();
+        model.dispose();
         view.dispose();
         System.exit(0);
     }
 
-    private List<Image> getCurrentImageList() {
-        if (visible.size() == 0) {
-            return model.getAllImages();
+    private ImageSequence getCurrentImageSequence() {
+        if (visible.isEmpty()) {
+            return images;
         }
         return visible;
     }
 
     private void closeAndOpenLibrary(Library library) {
+        memoryTimer.stop();
         model.dispose();
         view.setVisible(false);
         view.dispose();
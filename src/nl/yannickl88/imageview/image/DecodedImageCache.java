@@ -0,0 +1,295 @@
+package nl.yannickl88.imageview.image;
+
+import nl.yannickl88.imageview.logging.Logger;
+import nl.yannickl88.imageview.model.Image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache of decoded images, so images which have been shown before or are expected to be shown next do not have to be
+ * decoded again. Images can be decoded ahead of time in the background using {@see prefetch}.
+ *
+ * When a target size is given, images are kept as renditions for that size instead of at full resolution. The image is
+ * decoded directly at the coarsest subsampling which still covers the target, so the full resolution image is never
+ * held in memory. Renditions are also stored in a {@see RenditionCache}, so showing the image again later only needs to
+ * read the rendition.
+ *
+ * An image is never decoded twice at the same time, a request for an image which is being decoded waits for that
+ * decode to finish. Aborting the decoder of a request only stops the decode that request started itself, a request
+ * waiting for the decode of another one stops waiting and leaves that decode running.
+ */
+public class DecodedImageCache implements MemoryGovernor.ManagedCache {
+    private final ImageCache<Image, BufferedImage> cache;
+    private final HashMap<Image, DecodeTask> pending;
+    private final ThreadPoolExecutor executor;
+    private final RenditionCache renditions;
+    private final Dimension target;
+
+    public DecodedImageCache(long maxBytes) {
+        this(maxBytes, null, null);
+    }
+
+    public DecodedImageCache(long maxBytes, RenditionCache renditions, Dimension target) {
+        this.renditions = renditions;
+        this.target = target;
+
+        cache = ImageCache.withMaxBytes(maxBytes);
+        pending = new HashMap<>();
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "image-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Return the decoded image if it is cached, else null.
+     */
+    public BufferedImage get(Image image) {
+        return cache.get(image);
+    }
+
+    /**
+     * Check if an image can be loaded without decoding the original, because it is cached in memory or on disk.
+     */
+    public boolean isAvailable(Image image) {
+        if (cache.has(image)) {
+            return true;
+        }
+
+        return null != target && null != renditions && renditions.has(new File(image.metadata.path), target);
+    }
+
+    /**
+     * Return the decoded image, the image is decoded on the calling thread using the given decoder if it is not cached
+     * or being decoded. Aborting the decoder makes this throw an {@code InterruptedIOException}.
+     */
+    public BufferedImage load(Image image, ImageDecoder decoder) throws IOException {
+        while (true) {
+            BufferedImage decoded = cache.get(image);
+
+            if (null != decoded) {
+                return decoded;
+            }
+
+            DecodeTask task;
+            boolean owner = false;
+
+            synchronized (pending) {
+                task = pending.get(image);
+
+                if (null == task) {
+                    task = createTask(image, decoder);
+                    owner = true;
+                }
+            }
+
+            if (owner) {
+                task.run();
+            }
+
+            try {
+                return await(task, decoder);
+            } catch (CancellationException e) {
+                // The prefetch was dropped before it started, decode it again
+            } catch (ExecutionException e) {
+                // The decode of another request was aborted, decode it again
+                if (e.getCause() instanceof InterruptedIOException && !owner) {
+                    continue;
+                }
+
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Check if an image is being decoded, or waiting to be decoded in the background.
+     */
+    public boolean isPending(Image image) {
+        synchronized (pending) {
+            return pending.containsKey(image);
+        }
+    }
+
+    /**
+     * Decode the images in the background, in the given order. Images which were waiting to be decoded from an earlier
+     * call are no longer decoded.
+     */
+    public void prefetch(List<Image> images) {
+        ArrayList<Runnable> dropped = new ArrayList<>();
+
+        synchronized (pending) {
+            executor.getQueue().drainTo(dropped);
+
+            for (Runnable r : dropped) {
+                pending.values().remove(r);
+                ((FutureTask<?>) r).cancel(false);
+            }
+
+            for (Image image : images) {
+                if (null == image || !isSupported(image) || cache.has(image) || pending.containsKey(image)) {
+                    continue;
+                }
+
+                executor.execute(createTask(image, new ImageDecoder()));
+            }
+        }
+    }
+
+    /**
+     * Check if an image can be decoded by this cache, animated images are decoded frame by frame instead.
+     */
+    public static boolean isSupported(Image image) {
+        return !image.metadata.path.endsWith(".gif");
+    }
+
+    /**
+     * Return the size which decoded images cover, or null if images are kept at full resolution.
+     */
+    public Dimension getTarget() {
+        return target;
+    }
+
+    /**
+     * Return the cache of decoded images.
+     */
+    public ImageCache<Image, BufferedImage> getCache() {
+        return cache;
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return cache.getWeight();
+    }
+
+    @Override
+    public void shrinkTo(long bytes) {
+        cache.trimTo(bytes);
+    }
+
+    /**
+     * Stop decoding images in the background.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Decode an image, when there is a target size this returns the rendition for that size.
+     */
+    private BufferedImage decode(Image image, ImageDecoder decoder) throws IOException {
+        File file = new File(image.metadata.path);
+
+        if (decoder.isAborted()) {
+            throw new InterruptedIOException("Decoding aborted");
+        }
+
+        if (null != target && null != renditions) {
+            BufferedImage rendition = renditions.get(file, target);
+
+            if (null != rendition) {
+                return rendition;
+            }
+        }
+
+        if (null == target) {
+            return decoder.decode(file);
+        }
+
+        // Skip rows and columns while decoding, so the full resolution image is never held in memory
+        BufferedImage rendition = decoder.decode(file, target);
+        Dimension size = RenditionCache.getRenditionSize(rendition.getWidth(), rendition.getHeight(), target);
+
+        if (size.width != rendition.getWidth() || size.height != rendition.getHeight()) {
+            rendition = RenditionCache.scale(rendition, size.width, size.height);
+        }
+
+        // Images which are already small enough are cheap to decode again and are not stored
+        if (null != renditions && rendition.getWidth() < image.metadata.width) {
+            renditions.put(file, target, rendition);
+        }
+
+        return rendition;
+    }
+
+    /**
+     * Wait for a decode to finish, an abort of the decoder while waiting stops waiting.
+     */
+    private BufferedImage await(DecodeTask task, ImageDecoder decoder) throws IOException, ExecutionException {
+        try {
+            while (true) {
+                try {
+                    return task.get(50, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (decoder.isAborted()) {
+                        throw new InterruptedIOException("Decoding aborted");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Decoding interrupted");
+        }
+    }
+
+    /**
+     * Create a task which decodes an image into the cache and register it as pending.
+     *
+     * NOTE: the lock on pending must be held.
+     */
+    private DecodeTask createTask(Image image, ImageDecoder decoder) {
+        DecodeTask task = new DecodeTask(image, decoder);
+
+        pending.put(image, task);
+
+        return task;
+    }
+
+    /**
+     * Task decoding a single image into the cache, the decode can be aborted through its decoder.
+     */
+    private class DecodeTask extends FutureTask<BufferedImage> {
+        private DecodeTask(Image image, ImageDecoder decoder) {
+            super(() -> {
+                try {
+                    BufferedImage decoded = decode(image, decoder);
+
+                    cache.put(image, decoded);
+
+                    return decoded;
+                } catch (InterruptedIOException e) {
+                    throw e; // aborted
+                } catch (IOException e) {
+                    Logger.log(e);
+
+                    throw e;
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            synchronized (pending) {
+                pending.values().remove(this);
+            }
+        }
+    }
+}
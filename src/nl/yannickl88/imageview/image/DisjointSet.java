@@ -0,0 +1,74 @@
+package nl.yannickl88.imageview.image;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Disjoint-set (union-find) of the elements {@code 0} to {@code size - 1}. Each element starts in its own set, joining
+ * two elements merges their sets. Uses path halving, so both operations take nearly constant time.
+ *
+ * The set is lock free, so elements can be joined from many threads without them waiting on each other. A set is
+ * always linked below the set with the lower root, so the root of each set is its lowest element regardless of the
+ * order in which elements were joined.
+ */
+public class DisjointSet {
+    private final AtomicIntegerArray parents;
+
+    public DisjointSet(int size) {
+        parents = new AtomicIntegerArray(size);
+
+        for (int i = 0; i < size; i++) {
+            parents.set(i, i);
+        }
+    }
+
+    /**
+     * Return the representative element of the set containing the element, which is the lowest element of the set once
+     * all joins are done.
+     */
+    public int find(int element) {
+        while (true) {
+            int parent = parents.get(element);
+
+            if (parent == element) {
+                return element;
+            }
+
+            int grandparent = parents.get(parent);
+
+            // Path halving, a failed update only means another thread changed the path in the meantime
+            if (parent != grandparent) {
+                parents.compareAndSet(element, parent, grandparent);
+            }
+
+            element = grandparent;
+        }
+    }
+
+    /**
+     * Check if two elements are in the same set. While other threads are joining elements, this can return false for
+     * elements which are being joined, but never true for elements which are not.
+     */
+    public boolean isJoined(int a, int b) {
+        return find(a) == find(b);
+    }
+
+    /**
+     * Merge the sets containing both elements.
+     */
+    public void join(int a, int b) {
+        while (true) {
+            int rootA = find(a), rootB = find(b);
+
+            if (rootA == rootB) {
+                return;
+            }
+
+            int low = Math.min(rootA, rootB), high = Math.max(rootA, rootB);
+
+            // Only a root can be linked, if another thread linked it first the roots are looked up again
+            if (parents.compareAndSet(high, high, low)) {
+                return;
+            }
+        }
+    }
+}
@@ -1,22 +1,59 @@
 package nl.yannickl88.imageview.image;
 
+import nl.yannickl88.imageview.logging.Logger;
 import nl.yannickl88.imageview.model.Image;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Checker class for seeing if there are duplicate images.
+ * Checker class for seeing if there are duplicate images. Files which are exact copies are found by their size and
+ * content hash. For the other images, candidates are found by looking up images with a similar perceptual hash in a
+ * {@code HashIndex}, only those candidates are compared pixel by pixel.
+ *
+ * Matching images are joined in a {@code DisjointSet}, which makes the matches transitive. Once all images are checked,
+ * each joined set is split around its first image, which is the representative of the group, so every image of a group
+ * is the same as its representative. A series of slowly changing images therefore does not end up as a single group.
+ * The groups only depend on which images match, not on the order in which they were checked.
  */
 public class DuplicateImageChecker {
     private static final float SIMILARITY_THRESHOLD = 0.01f;
+    /**
+     * Maximum number of bits the perceptual hashes of two images can differ to be considered for comparison.
+     */
+    static final int HASH_THRESHOLD = 8;
+    /**
+     * Number of images checked by a single task of the pool.
+     */
+    private static final int BLOCK_SIZE = 64;
+    /**
+     * Number of bytes read from files of the same size, before reading the complete files.
+     */
+    private static final long PARTIAL_HASH_SIZE = 16 * 1024;
     private final ArrayList<ProgressListener> listeners;
-    private final ArrayList<Duplicate> foundDuplicates;
-    private boolean running = false;
+    private final SignatureStore signatureStore;
+    private final List<Duplicate> foundDuplicates;
+    private final AtomicBoolean cancelled;
+    private volatile boolean running = false;
 
     public interface ProgressListener {
         /**
@@ -35,6 +72,11 @@ public class DuplicateImageChecker {
          */
         void onComplete();
 
+        /**
+         * Triggers when the check has stopped after being cancelled.
+         */
+        void onCancel();
+
         /**
          * Triggers when there is an (intermediate) result.
          */
@@ -42,80 +84,301 @@ public class DuplicateImageChecker {
     }
 
     /**
-     * Wrapper class which represents a group of images which have been found to be duplicates.
+     * Wrapper class which represents a group of images which have been found to be duplicates. Each group has a unique
+     * id, a group which changes is replaced by a new group with a new id.
      */
     public static class Duplicate {
+        private static final AtomicInteger nextId = new AtomicInteger();
+
+        public final int id;
         public final Set<Image> duplicates;
 
         public Duplicate(HashSet<Image> duplicates) {
+            this.id = nextId.getAndIncrement();
             this.duplicates = duplicates;
         }
     }
 
     /**
-     * Checker class for asynchronous checking.
+     * Checker class for asynchronous checking. First, files which are exact copies are grouped based on their size and
+     * content. The remaining images are split into blocks which are checked in parallel on a {@code ForkJoinPool}, the
+     * matches are joined as they are found. The groups are reported once all blocks are done.
      */
     private class Checker extends Thread {
-        private final List<Image> images;
+        private final List<Image> allImages;
+        private final HashIndex index;
+        private final AtomicInteger completed;
+        private final HashMap<Image, List<Image>> copies;
+        private final HashMap<Image, Duplicate> exactGroups;
+        private List<Image> images;
+        private AtomicReferenceArray<byte[]> signatures;
+        private DisjointSet groups;
 
         private Checker(List<Image> images) {
-            this.images = images;
+            this.allImages = images;
+
+            index = new HashIndex();
+            completed = new AtomicInteger();
+            copies = new HashMap<>();
+            exactGroups = new HashMap<>();
+        }
+
+        /**
+         * Task checking a range of images, ranges larger than a block are split in two.
+         */
+        private class CheckTask extends RecursiveAction {
+            private final int from, to;
+
+            private CheckTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > BLOCK_SIZE) {
+                    int mid = (from + to) >>> 1;
+
+                    invokeAll(new CheckTask(from, mid), new CheckTask(mid, to));
+                    return;
+                }
+
+                for (int i = from; i < to && !cancelled.get(); i++) {
+                    checkImage(i);
+                }
+
+                notifyOfProgress(completed.addAndGet(to - from) / (double) images.size());
+            }
         }
 
         @Override
         public void run() {
             notifyOfStart();
-            running = true;
             foundDuplicates.clear();
 
-            ImageCache<BufferedImage> cache = new ImageCache<>();
-            int n = images.size();
+            ForkJoinPool pool = new ForkJoinPool();
 
-            for (int i = 0; i < n; i++) {
-                Image image = images.get(i);
-                HashSet<Image> group = new HashSet<>();
-                group.add(image);
+            try {
+                images = checkExactDuplicates();
+                signatures = new AtomicReferenceArray<>(images.size());
+                groups = new DisjointSet(images.size());
 
-                for (int j = i + 1; j < n; j++) {
-                    Image other = images.get(j);
-                    BufferedImage imageA, imageB;
+                int n = images.size();
 
-                    if (cache.has(image)) {
-                        imageA = cache.get(image);
-                    } else {
-                        imageA = getNormalizedImage(image.thumb);
-                        cache.put(image, imageA);
+                // The id of each hash in the index is the position of the image
+                for (int i = 0; i < n; i++) {
+                    index.add(images.get(i).metadata.hash);
+                }
+
+                pool.invoke(new CheckTask(0, n));
+                collectDuplicates();
+            } finally {
+                pool.shutdown();
+                running = false;
+            }
+
+            if (cancelled.get()) {
+                notifyOfCancel();
+            } else {
+                notifyOfComplete();
+            }
+        }
+
+        /**
+         * Group all files which are exact copies of each other and report them. Only files of the same size are read,
+         * first partially and only if that matches completely. Returns the images which still need to be compared,
+         * which contains a single image of each group of copies. The other images of the group are stored as copies
+         * of that image.
+         */
+        private List<Image> checkExactDuplicates() {
+            HashMap<Long, List<Image>> bySize = new HashMap<>();
+            HashSet<Image> skipped = new HashSet<>();
+
+            for (Image i : allImages) {
+                long size = new File(i.metadata.path).length();
+
+                // Missing files have no size, so they can only be compared on how they look
+                if (size > 0) {
+                    bySize.computeIfAbsent(size, k -> new ArrayList<>()).add(i);
+                }
+            }
+
+            for (List<Image> sameSize : bySize.values()) {
+                if (sameSize.size() < 2 || cancelled.get()) {
+                    continue;
+                }
+
+                for (List<Image> samePartial : groupByContent(sameSize, PARTIAL_HASH_SIZE)) {
+                    for (List<Image> same : groupByContent(samePartial, Long.MAX_VALUE)) {
+                        Duplicate duplicate = new Duplicate(new HashSet<>(same));
+
+                        foundDuplicates.add(duplicate);
+                        notifyOfResultChange();
+
+                        exactGroups.put(same.get(0), duplicate);
+                        copies.put(same.get(0), new ArrayList<>(same.subList(1, same.size())));
+                        skipped.addAll(same.subList(1, same.size()));
                     }
+                }
+            }
 
-                    if (cache.has(other)) {
-                        imageB = cache.get(other);
-                    } else {
-                        imageB = getNormalizedImage(other.thumb);
-                        cache.put(other, imageB);
+            ArrayList<Image> remaining = new ArrayList<>();
+
+            for (Image i : allImages) {
+                if (!skipped.contains(i)) {
+                    remaining.add(i);
+                }
+            }
+
+            return remaining;
+        }
+
+        /**
+         * Group the images by the hash of the first bytes of their file, only groups of more than one image are
+         * returned. Files which cannot be read are left out.
+         */
+        private List<List<Image>> groupByContent(List<Image> images, long limit) {
+            HashMap<ByteBuffer, List<Image>> byHash = new HashMap<>();
+
+            for (Image i : images) {
+                if (cancelled.get()) {
+                    break;
+                }
+
+                try {
+                    byHash.computeIfAbsent(hashFile(new File(i.metadata.path), limit), k -> new ArrayList<>()).add(i);
+                } catch (IOException e) {
+                    Logger.log(e);
+                }
+            }
+
+            ArrayList<List<Image>> groups = new ArrayList<>();
+
+            for (List<Image> group : byHash.values()) {
+                if (group.size() > 1) {
+                    groups.add(group);
+                }
+            }
+
+            return groups;
+        }
+
+        /**
+         * Compare an image with all later images which have a similar hash, matching images are joined. Images which
+         * are already joined are not compared again.
+         */
+        private void checkImage(int i) {
+            for (int j : index.search(images.get(i).metadata.hash, HASH_THRESHOLD)) {
+                if (j <= i || groups.isJoined(i, j)) {
+                    continue;
+                }
+
+                if (DuplicateImageChecker.imagesAreTheSame(getSignature(i), getSignature(j))) {
+                    groups.join(i, j);
+                }
+            }
+        }
+
+        /**
+         * Split the joined sets into groups and report them, including the copies of each image. Groups of copies which
+         * are part of a group are replaced by it.
+         */
+        private void collectDuplicates() {
+            LinkedHashMap<Integer, List<Integer>> sets = new LinkedHashMap<>();
+
+            // Images are visited in order and the root is the lowest image of a set, so the members of each set are
+            // sorted and the sets are in the order of their first image
+            for (int i = 0; i < images.size(); i++) {
+                sets.computeIfAbsent(groups.find(i), k -> new ArrayList<>()).add(i);
+            }
+
+            ArrayList<Duplicate> found = new ArrayList<>();
+
+            for (List<Integer> set : sets.values()) {
+                if (set.size() < 2) {
+                    continue;
+                }
+
+                for (List<Integer> group : split(set)) {
+                    HashSet<Image> duplicates = new HashSet<>();
+
+                    for (int i : group) {
+                        Image image = images.get(i);
+
+                        duplicates.add(image);
+                        duplicates.addAll(copies.getOrDefault(image, Collections.emptyList()));
+                        exactGroups.remove(image);
                     }
 
-                    if (DuplicateImageChecker.imagesAreTheSame(imageA, imageB)) {
-                        group.add(other);
+                    found.add(new Duplicate(duplicates));
+                }
+            }
+
+            synchronized (foundDuplicates) {
+                foundDuplicates.retainAll(new HashSet<>(exactGroups.values()));
+                foundDuplicates.addAll(found);
+            }
+
+            notifyOfResultChange();
+        }
+
+        /**
+         * Split a sorted set of joined images into groups in which every image is the same as the first image of the
+         * group. Images which are not the same as the first image are split again, groups of a single image are left
+         * out.
+         */
+        private List<List<Integer>> split(List<Integer> set) {
+            ArrayList<List<Integer>> result = new ArrayList<>();
+            List<Integer> remaining = set;
+
+            while (remaining.size() > 1) {
+                int representative = remaining.get(0);
+                ArrayList<Integer> group = new ArrayList<>();
+                ArrayList<Integer> rest = new ArrayList<>();
+
+                group.add(representative);
+
+                for (int i : remaining.subList(1, remaining.size())) {
+                    if (imagesAreTheSame(getSignature(representative), getSignature(i))) {
+                        group.add(i);
+                    } else {
+                        rest.add(i);
                     }
                 }
 
                 if (group.size() > 1) {
-                    foundDuplicates.add(new Duplicate(group));
-                    notifyOfResultChange();
+                    result.add(group);
                 }
 
-                notifyOfProgress(i / (double) n);
+                remaining = rest;
+            }
+
+            return result;
+        }
+
+        /**
+         * Return the signature of an image, it is taken from the signature store the first time it is needed. Only
+         * images which have a similar hash to another image will ever need one.
+         */
+        private byte[] getSignature(int i) {
+            byte[] signature = signatures.get(i);
+
+            if (null == signature) {
+                signature = signatureStore.get(images.get(i));
+                signatures.set(i, signature);
             }
-            running = false;
-            notifyOfComplete();
+
+            return signature;
         }
     }
 
-    public DuplicateImageChecker() {
+    public DuplicateImageChecker(SignatureStore signatureStore) {
         super();
 
+        this.signatureStore = signatureStore;
         listeners = new ArrayList<>();
-        foundDuplicates = new ArrayList<>();
+        foundDuplicates = Collections.synchronizedList(new ArrayList<>());
+        cancelled = new AtomicBoolean(false);
     }
 
     /**
@@ -130,18 +393,71 @@ public class DuplicateImageChecker {
      *
      * NOTE: while another check is in progress, this method does nothing.
      */
-    public void checkImages(List<Image> images) {
+    public synchronized void checkImages(List<Image> images) {
         if (!running) {
+            running = true;
+            cancelled.set(false);
+
             Checker checker = new Checker(images);
             checker.start();
         }
     }
 
+    /**
+     * Cancel the check in progress, if any. The check stops as soon as the images being checked are done, after which
+     * a new check can be started.
+     */
+    public void cancel() {
+        if (running) {
+            cancelled.set(true);
+        }
+    }
+
     /**
      * Return a list of duplicates which have been found by all the done checks.
      */
     public List<Duplicate> getResults() {
-        return foundDuplicates;
+        synchronized (foundDuplicates) {
+            return new ArrayList<>(foundDuplicates);
+        }
+    }
+
+    /**
+     * Return the SHA-256 hash of at most the first {@code limit} bytes of a file.
+     */
+    private static ByteBuffer hashFile(File file, long limit) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            long remaining = limit;
+
+            while (remaining > 0) {
+                buffer.clear();
+
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+
+                int read = channel.read(buffer);
+
+                if (read < 0) {
+                    break;
+                }
+
+                buffer.flip();
+                digest.update(buffer);
+                remaining -= read;
+            }
+        }
+
+        return ByteBuffer.wrap(digest.digest());
     }
 
     /**
@@ -150,43 +466,60 @@ public class DuplicateImageChecker {
     private static final int RESOLUTION = 25;
 
     /**
-     * Check if two images are the same based on the pixel color differences.
+     * Length of a signature, which contains a plane of RESOLUTION x RESOLUTION bytes for each of the red, green and
+     * blue channels.
      */
-    private static boolean imagesAreTheSame(BufferedImage a, BufferedImage b) {
-        float runningTotal = 0.0f;
-        for (int i = 0; i < RESOLUTION; i++) {
-            for (int j = 0; j < RESOLUTION; j++) {
-                Color colorA = new Color(a.getRGB(i, j));
-                Color colorB = new Color(b.getRGB(i, j));
+    static final int SIGNATURE_LENGTH = RESOLUTION * RESOLUTION * 3;
 
-                float differenceRed = Math.abs(colorA.getRed() - colorB.getRed()) / 255.0f;
-                float differenceGreen = Math.abs(colorA.getGreen() - colorB.getGreen()) / 255.0f;
-                float differenceBlue = Math.abs(colorA.getBlue() - colorB.getBlue()) / 255.0f;
+    /**
+     * Largest sum of absolute channel differences for which two signatures are still the same. This is the
+     * SIMILARITY_THRESHOLD of the average difference per pixel, expressed in the total over all channels.
+     */
+    private static final int MAX_DIFFERENCE = (int) Math.ceil(SIMILARITY_THRESHOLD * 255 * SIGNATURE_LENGTH) - 1;
 
-                float differenceForThisPixel = (differenceRed + differenceGreen + differenceBlue) / 3.0f;
-                runningTotal += differenceForThisPixel;
+    /**
+     * Check if two images are the same based on the sum of absolute differences of their signatures. The sum is checked
+     * after each row, so dissimilar images return early.
+     */
+    static boolean imagesAreTheSame(byte[] a, byte[] b) {
+        int total = 0;
 
-                // Early return
-                if ((runningTotal / (RESOLUTION * RESOLUTION)) >= SIMILARITY_THRESHOLD) {
-                    return false;
-                }
+        for (int offset = 0; offset < SIGNATURE_LENGTH; offset += RESOLUTION) {
+            for (int i = offset, end = offset + RESOLUTION; i < end; i++) {
+                total += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+            }
+
+            if (total > MAX_DIFFERENCE) {
+                return false;
             }
         }
-        return (runningTotal / (RESOLUTION * RESOLUTION)) < SIMILARITY_THRESHOLD;
+
+        return true;
     }
 
     /**
-     * Return an image normalized for the resolution of the checker.
+     * Return the signature of an image, which is the image normalized for the resolution of the checker stored as a
+     * plane of bytes per channel.
      *
      * see DuplicateImageChecker.RESOLUTION;
      */
-    private static BufferedImage getNormalizedImage(BufferedImage image) {
+    static byte[] getSignature(BufferedImage image) {
         BufferedImage normalized = new BufferedImage(RESOLUTION, RESOLUTION, BufferedImage.TYPE_INT_RGB);
         Graphics gB = normalized.getGraphics();
         gB.drawImage(image.getScaledInstance(RESOLUTION, RESOLUTION, java.awt.Image.SCALE_SMOOTH), 0, 0, null);
         gB.dispose();
 
-        return normalized;
+        int pixels = RESOLUTION * RESOLUTION;
+        int[] rgb = normalized.getRGB(0, 0, RESOLUTION, RESOLUTION, null, 0, RESOLUTION);
+        byte[] signature = new byte[SIGNATURE_LENGTH];
+
+        for (int p = 0; p < pixels; p++) {
+            signature[p] = (byte) (rgb[p] >> 16);
+            signature[pixels + p] = (byte) (rgb[p] >> 8);
+            signature[pixels * 2 + p] = (byte) rgb[p];
+        }
+
+        return signature;
     }
 
     /**
@@ -216,6 +549,15 @@ public class DuplicateImageChecker {
         }
     }
 
+    /**
+     * Notify all registered ProgressListener for the cancellation of the check.
+     */
+    private synchronized void notifyOfCancel() {
+        for (ProgressListener l : listeners) {
+            l.onCancel();
+        }
+    }
+
     /**
      * Notify all registered ProgressListener for change in the results.
      */
@@ -0,0 +1,236 @@
+package nl.yannickl88.imageview.image;
+
+import nl.yannickl88.imageview.model.Image;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Index of all images in a library which keeps a live list of duplicates. Each new image is checked against the images
+ * already in the index, so duplicates are known as soon as an image arrives without running a full check.
+ *
+ * The index is built from the perceptual hashes, which are stored with the library, and the signatures of all checked
+ * images are kept in the {@see SignatureStore}. Rebuilding the index when a library is opened only compares the stored
+ * signatures of images with a similar hash, only new and changed images need their signature calculated. Checking
+ * happens on a background thread.
+ *
+ * Like the {@see DuplicateImageChecker}, an image only joins a group if it is the same as the representative of that
+ * group.
+ */
+public class DuplicateIndex {
+    private final HashIndex index;
+    private final SignatureStore signatureStore;
+    private final ArrayList<Image> images;
+    private final HashMap<Image, Integer> ids;
+    private final HashMap<Image, DuplicateImageChecker.Duplicate> groups;
+    private final HashMap<DuplicateImageChecker.Duplicate, Image> representatives;
+    private final ArrayList<DuplicateImageChecker.Duplicate> duplicates;
+    private final ArrayList<DuplicateChangeListener> listeners;
+    private final ExecutorService executor;
+
+    public interface DuplicateChangeListener {
+        /**
+         * Triggers when a group of duplicates has been found, changed or resolved.
+         */
+        void onDuplicatesChange();
+    }
+
+    public DuplicateIndex(SignatureStore signatureStore) {
+        this.signatureStore = signatureStore;
+
+        index = new HashIndex();
+        images = new ArrayList<>();
+        ids = new HashMap<>();
+        groups = new HashMap<>();
+        representatives = new HashMap<>();
+        duplicates = new ArrayList<>();
+        listeners = new ArrayList<>();
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "duplicate-index");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Register a change listener for the duplicates.
+     */
+    public synchronized void addChangeListener(DuplicateChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a registered change listener.
+     */
+    public synchronized void removeChangeListener(DuplicateChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Add an image to the index and check it for duplicates in the background.
+     */
+    public void add(Image image) {
+        executor.execute(() -> check(image));
+    }
+
+    /**
+     * Remove an image from the index, any group of duplicates it is part of is updated.
+     */
+    public void remove(Image image) {
+        executor.execute(() -> {
+            if (removeSilent(image)) {
+                notifyDuplicatesChange();
+            }
+        });
+    }
+
+    /**
+     * Return all groups of duplicates currently known.
+     */
+    public synchronized List<DuplicateImageChecker.Duplicate> getDuplicates() {
+        return new ArrayList<>(duplicates);
+    }
+
+    /**
+     * Stop checking any images which are still waiting.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    private void check(Image image) {
+        synchronized (this) {
+            if (ids.containsKey(image)) {
+                return;
+            }
+
+            // The signature is always taken, so it is stored and the image never has to be read again
+            byte[] signature = signatureStore.get(image);
+            HashSet<DuplicateImageChecker.Duplicate> compared = new HashSet<>();
+            DuplicateImageChecker.Duplicate joined = null;
+            Image match = null;
+
+            for (int id : index.search(image.metadata.hash, DuplicateImageChecker.HASH_THRESHOLD)) {
+                Image other = images.get(id);
+
+                if (null == other) {
+                    continue; // removed
+                }
+
+                DuplicateImageChecker.Duplicate existing = groups.get(other);
+
+                // Groups are only joined when the image is the same as their representative
+                if (null != existing) {
+                    if (compared.add(existing) && DuplicateImageChecker.imagesAreTheSame(signature, signatureStore.get(representatives.get(existing)))) {
+                        joined = existing;
+                        break;
+                    }
+                } else if (null == match && DuplicateImageChecker.imagesAreTheSame(signature, signatureStore.get(other))) {
+                    match = other;
+                }
+            }
+
+            ids.put(image, index.add(image.metadata.hash));
+            images.add(image);
+
+            if (null != joined) {
+                duplicates.remove(joined);
+
+                HashSet<Image> group = new HashSet<>(joined.duplicates);
+                group.add(image);
+
+                setGroup(representatives.remove(joined), group);
+            } else if (null != match) {
+                HashSet<Image> group = new HashSet<>();
+                group.add(match);
+                group.add(image);
+
+                setGroup(match, group);
+            } else {
+                return;
+            }
+        }
+
+        notifyDuplicatesChange();
+    }
+
+    private synchronized boolean removeSilent(Image image) {
+        Integer id = ids.remove(image);
+
+        if (null == id) {
+            return false;
+        }
+
+        images.set(id, null);
+
+        DuplicateImageChecker.Duplicate existing = groups.remove(image);
+
+        if (null == existing) {
+            return false;
+        }
+
+        duplicates.remove(existing);
+
+        Image representative = representatives.remove(existing);
+        HashSet<Image> group = new HashSet<>(existing.duplicates);
+        group.remove(image);
+
+        for (Image i : group) {
+            groups.remove(i);
+        }
+
+        if (group.isEmpty()) {
+            return true;
+        }
+
+        // The members were only compared to the removed representative, keep those which are the same as the new one
+        if (image == representative) {
+            Image next = group.iterator().next();
+            byte[] signature = signatureStore.get(next);
+
+            group.removeIf(i -> i != next && !DuplicateImageChecker.imagesAreTheSame(signature, signatureStore.get(i)));
+            representative = next;
+        }
+
+        if (group.size() > 1) {
+            setGroup(representative, group);
+        }
+
+        return true;
+    }
+
+    /**
+     * Store a new group of duplicates. Groups are replaced instead of changed, so the sets handed out are not changed
+     * while they are being used.
+     */
+    private void setGroup(Image representative, HashSet<Image> group) {
+        DuplicateImageChecker.Duplicate duplicate = new DuplicateImageChecker.Duplicate(group);
+
+        for (Image i : group) {
+            groups.put(i, duplicate);
+        }
+
+        duplicates.add(duplicate);
+        representatives.put(duplicate, representative);
+    }
+
+    /**
+     * Notify all registered DuplicateChangeListeners for changes in the duplicates.
+     */
+    private void notifyDuplicatesChange() {
+        ArrayList<DuplicateChangeListener> listeners;
+
+        synchronized (this) {
+            listeners = new ArrayList<>(this.listeners);
+        }
+
+        for (DuplicateChangeListener l : listeners) {
+            l.onDuplicatesChange();
+        }
+    }
+}
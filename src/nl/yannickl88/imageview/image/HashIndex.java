@@ -0,0 +1,177 @@
+package nl.yannickl88.imageview.image;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of 64-bit perceptual hashes for finding all hashes within a Hamming distance, using multi-index hashing.
+ *
+ * Each hash is split into 4 bands of 16 bits and every band has its own table. When two hashes differ at most
+ * {@code d} bits, at least one of the bands differs at most {@code d / 4} bits. So a search only has to look at the
+ * buckets close to each band of the hash instead of comparing against every hash in the index.
+ *
+ * Hashes are identified by the id returned when adding them, ids are assigned in order starting at 0.
+ *
+ * @see PerceptualHash
+ */
+public class HashIndex {
+    private static final int BANDS = 4, BAND_BITS = 16, BAND_MASK = (1 << BAND_BITS) - 1;
+    private static final int[][] MASKS = new int[BAND_BITS + 1][];
+
+    private final int[][][] buckets;
+    private final int[][] bucketSizes;
+    private final ReentrantReadWriteLock lock;
+    private long[] hashes;
+    private int size;
+
+    public HashIndex() {
+        buckets = new int[BANDS][1 << BAND_BITS][];
+        bucketSizes = new int[BANDS][1 << BAND_BITS];
+        lock = new ReentrantReadWriteLock();
+        hashes = new long[16];
+        size = 0;
+    }
+
+    /**
+     * Add a hash to the index and return its id.
+     */
+    public int add(long hash) {
+        lock.writeLock().lock();
+
+        try {
+            int id = size++;
+
+            if (id == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            hashes[id] = hash;
+
+            for (int b = 0; b < BANDS; b++) {
+                int key = band(hash, b);
+                int[] bucket = buckets[b][key];
+                int n = bucketSizes[b][key];
+
+                if (null == bucket) {
+                    bucket = buckets[b][key] = new int[2];
+                } else if (n == bucket.length) {
+                    bucket = buckets[b][key] = Arrays.copyOf(bucket, n * 2);
+                }
+
+                bucket[n] = id;
+                bucketSizes[b][key]++;
+            }
+
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return the hash for an id.
+     */
+    public long get(int id) {
+        lock.readLock().lock();
+
+        try {
+            return hashes[id];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of hashes in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the ids of all hashes within the maximum distance of the given hash, in ascending order.
+     */
+    public int[] search(long hash, int maxDistance) {
+        int radius = Math.min(maxDistance / BANDS, BAND_BITS);
+        int[] masks = getMasks(radius);
+        int[] result = new int[16];
+        int found = 0;
+
+        lock.readLock().lock();
+
+        try {
+            for (int b = 0; b < BANDS; b++) {
+                int key = band(hash, b);
+
+                for (int mask : masks) {
+                    int[] bucket = buckets[b][key ^ mask];
+                    int n = bucketSizes[b][key ^ mask];
+
+                    for (int i = 0; i < n; i++) {
+                        int id = bucket[i];
+                        long other = hashes[id];
+
+                        if (PerceptualHash.distance(hash, other) > maxDistance || isFoundInEarlierBand(hash ^ other, b, radius)) {
+                            continue;
+                        }
+
+                        if (found == result.length) {
+                            result = Arrays.copyOf(result, found * 2);
+                        }
+                        result[found++] = id;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        result = Arrays.copyOf(result, found);
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    /**
+     * Check if a match would already have been found in one of the bands before the given band, so each match is only
+     * reported once.
+     */
+    private static boolean isFoundInEarlierBand(long difference, int band, int radius) {
+        for (int b = 0; b < band; b++) {
+            if (Integer.bitCount(band(difference, b)) <= radius) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int band(long hash, int band) {
+        return (int) (hash >>> (band * BAND_BITS)) & BAND_MASK;
+    }
+
+    /**
+     * Return all masks of a band with at most {@code radius} bits set.
+     */
+    private static synchronized int[] getMasks(int radius) {
+        if (null == MASKS[radius]) {
+            int[] masks = new int[1 << BAND_BITS];
+            int n = 0;
+
+            for (int mask = 0; mask <= BAND_MASK; mask++) {
+                if (Integer.bitCount(mask) <= radius) {
+                    masks[n++] = mask;
+                }
+            }
+
+            MASKS[radius] = Arrays.copyOf(masks, n);
+        }
+
+        return MASKS[radius];
+    }
+}
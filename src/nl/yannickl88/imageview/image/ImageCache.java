@@ -1,36 +1,293 @@
 package nl.yannickl88.imageview.image;
 
-import nl.yannickl88.imageview.model.Image;
-
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Cache based on the Image class and an associated Object.
+ * Cache of values associated with images, like the decoded pixels of an Image or the tiles of a large image. The least
+ * recently used entries are evicted once the total weight of all entries exceeds the capacity. By default each entry weighs 1, so the capacity is the number of entries,
+ * a {@code Weigher} can be given to limit the cache by, for instance, the number of bytes.
+ *
+ * All operations take constant time and can be used from multiple threads.
  */
-public class ImageCache<T> {
-    private final HashMap<Image, T> imageCache;
-    private final LinkedList<Image> queue;
+public class ImageCache<K, T> {
+    private final LinkedHashMap<K, Entry<T>> entries;
+    private final Weigher<T> weigher;
+    private final ReentrantLock lock;
+    private long maxWeight;
+    private long weight = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    public interface Weigher<T> {
+        /**
+         * Return the weight of a value, which should be at least 1.
+         */
+        long weigh(T value);
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long weight;
+
+        private Entry(T value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
 
     public ImageCache() {
-        imageCache = new HashMap<>();
-        queue = new LinkedList<>();
+        this(12);
+    }
+
+    /**
+     * Create a cache for a maximum number of entries.
+     */
+    public ImageCache(int maxEntries) {
+        this(maxEntries, value -> 1);
+    }
+
+    /**
+     * Create a cache for a maximum total weight of all entries.
+     */
+    public ImageCache(long maxWeight, Weigher<T> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        lock = new ReentrantLock();
+    }
+
+    /**
+     * Create a cache for images which is limited by the number of bytes used by the pixels of the images.
+     */
+    public static <K> ImageCache<K, BufferedImage> withMaxBytes(long maxBytes) {
+        return new ImageCache<>(maxBytes, ImageCache::getByteSize);
+    }
+
+    /**
+     * Return the number of bytes used by the pixels of an image, this is the size of the buffer backing its raster. An
+     * image which shares a larger buffer, like a sub image, is counted for the complete buffer it keeps in memory.
+     */
+    public static long getByteSize(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+
+        return Math.max(1, (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+
+    public boolean has(K key) {
+        lock.lock();
+
+        try {
+            return entries.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the value for a key, or null when it is not cached. A found value becomes the most recently used.
+     */
+    public T get(K key) {
+        lock.lock();
+
+        try {
+            Entry<T> entry = entries.get(key);
+
+            if (null == entry) {
+                misses++;
+
+                return null;
+            }
+
+            hits++;
+
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store the value for a key. Values which weigh more than the capacity of the cache are not stored.
+     */
+    public void put(K key, T value) {
+        long entryWeight = weigher.weigh(value);
+
+        lock.lock();
+
+        try {
+            Entry<T> old = entries.remove(key);
+
+            if (null != old) {
+                weight -= old.weight;
+            }
+
+            if (entryWeight > maxWeight) {
+                return;
+            }
+
+            entries.put(key, new Entry<>(value, entryWeight));
+            weight += entryWeight;
+
+            evict(maxWeight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the value for a key.
+     */
+    public void remove(K key) {
+        lock.lock();
+
+        try {
+            Entry<T> old = entries.remove(key);
+
+            if (null != old) {
+                weight -= old.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void clear() {
+        lock.lock();
+
+        try {
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change the capacity of the cache, entries are evicted directly if the cache has become too large.
+     */
+    public void setMaxWeight(long maxWeight) {
+        lock.lock();
+
+        try {
+            this.maxWeight = maxWeight;
+
+            evict(maxWeight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evict the least recently used values until the total weight is at most the given weight, without changing the
+     * capacity of the cache.
+     */
+    public void trimTo(long weight) {
+        lock.lock();
+
+        try {
+            evict(weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWeight() {
+        lock.lock();
+
+        try {
+            return maxWeight;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public boolean has(Image image) {
-        return imageCache.containsKey(image);
+    /**
+     * Return the total weight of all cached values.
+     */
+    public long getWeight() {
+        lock.lock();
+
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        lock.lock();
+
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public T get(Image image) {
-        return imageCache.get(image);
+    public long getMissCount() {
+        lock.lock();
+
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictionCount() {
+        lock.lock();
+
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+
+        try {
+            return String.format(
+                    "ImageCache[size=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                    entries.size(), weight, maxWeight, hits, misses, evictions
+            );
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public void put(Image image, T drawable) {
-        imageCache.put(image, drawable);
-        queue.add(image);
+    /**
+     * Evict the least recently used values until the total weight is at most the limit.
+     *
+     * NOTE: the lock must be held.
+     */
+    private void evict(long limit) {
+        Iterator<Map.Entry<K, Entry<T>>> iterator = entries.entrySet().iterator();
 
-        while (queue.size() > 12) {
-            imageCache.remove(queue.remove());
+        while (weight > limit && iterator.hasNext()) {
+            weight -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions++;
         }
     }
 }
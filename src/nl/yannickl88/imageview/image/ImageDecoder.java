@@ -0,0 +1,251 @@
+package nl.yannickl88.imageview.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decoder for a single image which can be aborted from another thread. Aborting stops the decode as soon as possible
+ * through {@code ImageReader.abort()}, after which {@see decode} throws an {@code InterruptedIOException}. Some readers,
+ * like the JPEG reader, only accept the abort from the thread which is decoding, so the decode also aborts itself from
+ * its progress updates.
+ *
+ * The number of images decoded at the same time is limited per storage device, so decodes do not compete for the same
+ * disk.
+ */
+public class ImageDecoder {
+    /**
+     * Number of images which can be decoded at the same time from a single storage device.
+     */
+    private static final int DECODES_PER_DEVICE = 2;
+    private static final ConcurrentHashMap<Object, Semaphore> devices = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Path, Object> deviceOfDirectory = new ConcurrentHashMap<>();
+
+    private volatile ImageReader reader = null;
+    private volatile boolean aborted = false;
+
+    /**
+     * Factory for the parameters of a decode, which can depend on the image being decoded.
+     */
+    private interface ParamFactory {
+        ImageReadParam create(ImageReader reader) throws IOException;
+    }
+
+    /**
+     * Decode an image file.
+     */
+    public BufferedImage decode(File file) throws IOException {
+        return read(file, reader -> null);
+    }
+
+    /**
+     * Decode an image file using the given parameters, which can be null for decoding the complete image.
+     */
+    public BufferedImage decode(File file, ImageReadParam param) throws IOException {
+        return read(file, reader -> param);
+    }
+
+    /**
+     * Decode an image file at a reduced resolution which still covers the given size. Rows and columns are skipped
+     * while decoding, which makes this much faster than decoding the complete image and scaling it down afterwards.
+     */
+    public BufferedImage decode(File file, Dimension size) throws IOException {
+        return read(file, reader -> {
+            int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), size);
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+            return param;
+        });
+    }
+
+    /**
+     * Return the largest subsampling for an image which still covers the given size.
+     */
+    public static int getSubsampling(int width, int height, Dimension size) {
+        return Math.max(1, Math.min(width / Math.max(1, size.width), height / Math.max(1, size.height)));
+    }
+
+    private BufferedImage read(File file, ParamFactory params) throws IOException {
+        Semaphore permits = devices.computeIfAbsent(getDevice(file), k -> new Semaphore(DECODES_PER_DEVICE, true));
+
+        acquire(permits);
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (null == in) {
+                throw new IOException("Cannot read " + file);
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image " + file);
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(in, true, true);
+                abortWhen(reader, this::isAborted);
+                this.reader = reader;
+
+                // Abort could have been called before the reader was known
+                if (aborted) {
+                    throw new InterruptedIOException("Decoding aborted");
+                }
+
+                BufferedImage image = reader.read(0, params.create(reader));
+
+                if (aborted) {
+                    throw new InterruptedIOException("Decoding aborted");
+                }
+
+                return image;
+            } finally {
+                this.reader = null;
+                reader.dispose();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Abort the decode, this can be called from any thread.
+     */
+    public void abort() {
+        aborted = true;
+
+        ImageReader reader = this.reader;
+
+        if (null != reader) {
+            abort(reader);
+        }
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Abort a reader from another thread than the one reading. Readers which only accept this from the reading thread
+     * refuse the abort, those abort themselves through {@see abortWhen} instead.
+     */
+    public static void abort(ImageReader reader) {
+        try {
+            reader.abort();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Abort the reader from the reading thread on its next progress update once the condition is true.
+     */
+    public static void abortWhen(ImageReader reader, BooleanSupplier condition) {
+        reader.addIIOReadProgressListener(new AbortListener(condition));
+    }
+
+    /**
+     * Progress listener which aborts the read it is called for once the condition is true.
+     */
+    private static class AbortListener implements IIOReadProgressListener {
+        private final BooleanSupplier condition;
+
+        private AbortListener(BooleanSupplier condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (condition.getAsBoolean()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+
+    /**
+     * Wait for a permit to decode, an abort while waiting stops waiting.
+     */
+    private void acquire(Semaphore permits) throws IOException {
+        try {
+            while (!permits.tryAcquire(50, TimeUnit.MILLISECONDS)) {
+                if (aborted) {
+                    throw new InterruptedIOException("Decoding aborted");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Decoding interrupted");
+        }
+    }
+
+    /**
+     * Return the storage device of a file. The device is looked up once per directory.
+     */
+    private static Object getDevice(File file) {
+        Path directory = file.getAbsoluteFile().toPath().getParent();
+
+        if (null == directory) {
+            return "";
+        }
+
+        return deviceOfDirectory.computeIfAbsent(directory, d -> {
+            try {
+                FileStore store = Files.getFileStore(d);
+
+                return store.name() + "|" + store.toString();
+            } catch (IOException e) {
+                return "";
+            }
+        });
+    }
+}
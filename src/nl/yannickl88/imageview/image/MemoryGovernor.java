@@ -0,0 +1,189 @@
+package nl.yannickl88.imageview.image;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * Governor of the memory used by all caches of the application. The governor watches the occupancy of the heap using
+ * the usage thresholds of the tenured memory pool. Once the pool is filled beyond the threshold, the registered caches
+ * are asked to shrink in order of priority, until the expected occupancy is back at the target.
+ *
+ * Caches with the lowest priority are shrunk first, so caches which are cheap to fill again should use a low priority.
+ */
+public class MemoryGovernor {
+    /**
+     * Part of the pool which can be used before caches need to shrink.
+     */
+    private static final double THRESHOLD = 0.75;
+    /**
+     * Part of the pool which should be used after shrinking the caches.
+     */
+    private static final double TARGET = 0.6;
+    private static MemoryGovernor instance = null;
+
+    private final ArrayList<Registration> caches;
+    private final MemoryPoolMXBean pool;
+
+    public interface ManagedCache {
+        /**
+         * Return the number of bytes used by the cache.
+         */
+        long getUsedBytes();
+
+        /**
+         * Release entries until the cache uses at most the given number of bytes.
+         */
+        void shrinkTo(long bytes);
+    }
+
+    private static class Registration {
+        private final ManagedCache cache;
+        private final int priority;
+
+        private Registration(ManagedCache cache, int priority) {
+            this.cache = cache;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Return the governor for the application.
+     */
+    public static synchronized MemoryGovernor getInstance() {
+        if (null == instance) {
+            instance = new MemoryGovernor();
+        }
+
+        return instance;
+    }
+
+    private MemoryGovernor() {
+        caches = new ArrayList<>();
+        pool = findTenuredPool();
+
+        if (null == pool) {
+            return; // Nothing to watch, caches will only be limited by their own capacity
+        }
+
+        long threshold = (long) (pool.getUsage().getMax() * THRESHOLD);
+        pool.setUsageThreshold(threshold);
+
+        if (pool.isCollectionUsageThresholdSupported()) {
+            pool.setCollectionUsageThreshold(threshold);
+        }
+
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())
+                    || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                relieve();
+            }
+        };
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+    }
+
+    /**
+     * Register a cache which should shrink when memory runs low.
+     */
+    public synchronized void register(ManagedCache cache, int priority) {
+        caches.add(new Registration(cache, priority));
+        caches.sort(Comparator.comparingInt(r -> r.priority));
+    }
+
+    /**
+     * Remove a registered cache.
+     */
+    public synchronized void unregister(ManagedCache cache) {
+        caches.removeIf(r -> r.cache == cache);
+    }
+
+    /**
+     * Shrink the caches in order of priority, until the expected occupancy of the heap is back at the target. The
+     * occupancy after the last collection is used when the pool reports it, as the current usage also counts garbage
+     * which the next collection releases without shrinking any cache.
+     */
+    public synchronized void relieve() {
+        MemoryUsage usage = null == pool ? null : getOccupancy(pool);
+
+        if (null == usage || usage.getMax() <= 0) {
+            return;
+        }
+
+        long excess = usage.getUsed() - (long) (usage.getMax() * TARGET);
+
+        for (Registration r : caches) {
+            if (excess <= 0) {
+                break;
+            }
+
+            long before = r.cache.getUsedBytes();
+            r.cache.shrinkTo(Math.max(0, before - excess));
+
+            excess -= before - r.cache.getUsedBytes();
+        }
+    }
+
+    /**
+     * Return the number of bytes used by all registered caches.
+     */
+    public synchronized long getCacheBytes() {
+        long total = 0;
+
+        for (Registration r : caches) {
+            total += r.cache.getUsedBytes();
+        }
+
+        return total;
+    }
+
+    /**
+     * Return a short description of the memory used by the caches and the heap.
+     */
+    public String getStatus() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+
+        return String.format(
+                "Cache %d MB, memory %d / %d MB",
+                getCacheBytes() >> 20,
+                used >> 20,
+                runtime.maxMemory() >> 20
+        );
+    }
+
+    /**
+     * Return the usage of the pool after the last collection, or the current usage when the pool does not report it.
+     */
+    private static MemoryUsage getOccupancy(MemoryPoolMXBean pool) {
+        MemoryUsage usage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+
+        return null != usage ? usage : pool.getUsage();
+    }
+
+    /**
+     * Find the heap pool which holds long living objects, which is the largest heap pool supporting thresholds.
+     */
+    private static MemoryPoolMXBean findTenuredPool() {
+        MemoryPoolMXBean tenured = null;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || pool.getUsage().getMax() <= 0) {
+                continue;
+            }
+
+            if (null == tenured || pool.getUsage().getMax() > tenured.getUsage().getMax()) {
+                tenured = pool;
+            }
+        }
+
+        return tenured;
+    }
+}
@@ -0,0 +1,56 @@
+package nl.yannickl88.imageview.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Perceptual hash (dHash) of an image. The image is reduced to a 9x8 grayscale grid and each bit of the 64-bit hash
+ * indicates if a cell is brighter than its right neighbour. Similar images have hashes which only differ in a few bits.
+ */
+public class PerceptualHash {
+    private static final int WIDTH = 9, HEIGHT = 8;
+
+    /**
+     * Calculate the hash of an image.
+     */
+    public static long of(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        long[] sums = new long[WIDTH * HEIGHT];
+        int[] counts = new int[WIDTH * HEIGHT];
+
+        // Average the luminance of all pixels per cell of the grid
+        for (int y = 0; y < height; y++) {
+            int row = (y * HEIGHT / height) * WIDTH;
+
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[y * width + x];
+                int cell = row + x * WIDTH / width;
+
+                sums[cell] += (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                int cell = y * WIDTH + x;
+
+                // Compare the averages without dividing: a / ca < b / cb <=> a * cb < b * ca
+                if (sums[cell] * counts[cell + 1] < sums[cell + 1] * counts[cell]) {
+                    hash |= 1L << (y * (WIDTH - 1) + x);
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Return the number of bits which differ between two hashes.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
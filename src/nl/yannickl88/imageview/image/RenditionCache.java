@@ -0,0 +1,276 @@
+package nl.yannickl88.imageview.image;
+
+import nl.yannickl88.imageview.logging.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache on disk of screen sized renditions of images. A rendition is the image scaled down so it still covers the
+ * target size, which makes it large enough to show the image fitted to, or filling, the screen. Reading a rendition is
+ * much cheaper than decoding the original image again.
+ *
+ * Renditions are identified by the path, size and modification time of the original file and the target size. When the
+ * original changes, a new rendition is made and the old one is eventually evicted. The least recently used renditions
+ * are removed once the cache grows beyond its maximum size.
+ */
+public class RenditionCache {
+    private static final float JPEG_QUALITY = 0.9f;
+
+    private final File directory;
+    private final long maxBytes;
+    private final ExecutorService writer;
+    private long usedBytes = -1;
+
+    public RenditionCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "rendition-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Return the default cache in the home directory of the user.
+     */
+    public static RenditionCache getDefault() {
+        return new RenditionCache(new File(System.getProperty("user.home"), ".imageviewer/renditions"), 1024L * 1024 * 1024);
+    }
+
+    /**
+     * Return the size of the largest screen, which is the target size for showing images.
+     */
+    public static Dimension getScreenSize() {
+        int width = 0, height = 0;
+
+        try {
+            for (GraphicsDevice device : GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()) {
+                DisplayMode mode = device.getDisplayMode();
+
+                width = Math.max(width, mode.getWidth());
+                height = Math.max(height, mode.getHeight());
+            }
+        } catch (HeadlessException e) {
+            // no screens
+        }
+
+        return width > 0 && height > 0 ? new Dimension(width, height) : new Dimension(2560, 1440);
+    }
+
+    /**
+     * Return the size of a rendition of an image, which is the image scaled down to cover the target. Images which are
+     * already smaller keep their size.
+     */
+    public static Dimension getRenditionSize(int width, int height, Dimension target) {
+        double scale = Math.max(target.width / (double) width, target.height / (double) height);
+
+        if (scale >= 1.0) {
+            return new Dimension(width, height);
+        }
+
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    /**
+     * Scale an image down to the given size. The image is halved in steps, so the result keeps its detail without
+     * needing a slow scaling algorithm.
+     */
+    public static BufferedImage scale(BufferedImage image, int width, int height) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int w = image.getWidth(), h = image.getHeight();
+
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+
+            BufferedImage step = new BufferedImage(w, h, type);
+            Graphics2D g2d = step.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(current, 0, 0, w, h, null);
+            g2d.dispose();
+
+            current = step;
+        } while (w != width || h != height);
+
+        return current;
+    }
+
+    /**
+     * Return the rendition of a file for the target size, or null if there is none.
+     */
+    public BufferedImage get(File source, Dimension target) {
+        for (File file : getFiles(source, target)) {
+            if (!file.exists()) {
+                continue;
+            }
+
+            try {
+                BufferedImage rendition = ImageIO.read(file);
+
+                if (null != rendition) {
+                    // The modification time is used for finding the least recently used renditions
+                    file.setLastModified(System.currentTimeMillis());
+
+                    return rendition;
+                }
+            } catch (IOException e) {
+                Logger.log(e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if there is a rendition of a file for the target size.
+     */
+    public boolean has(File source, Dimension target) {
+        for (File file : getFiles(source, target)) {
+            if (file.exists()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Store the rendition of a file for the target size. The rendition is written in the background, as JPEG when the
+     * original is a JPEG and as PNG otherwise, so renditions of lossless images do not get compression artifacts.
+     */
+    public void put(File source, Dimension target, BufferedImage rendition) {
+        File[] files = getFiles(source, target);
+        File file = isJpeg(source) && !rendition.getColorModel().hasAlpha() ? files[0] : files[1];
+
+        writer.execute(() -> {
+            try {
+                write(rendition, file);
+                evict();
+            } catch (IOException e) {
+                Logger.log(e);
+            }
+        });
+    }
+
+    private void write(BufferedImage rendition, File file) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        File temp = new File(directory, file.getName() + ".tmp");
+        String format = file.getName().endsWith(".png") ? "png" : "jpg";
+        ImageWriter imageWriter = ImageIO.getImageWritersByFormatName(format).next();
+
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(temp)) {
+            ImageWriteParam param = imageWriter.getDefaultWriteParam();
+
+            if (format.equals("jpg")) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+            }
+
+            imageWriter.setOutput(out);
+            imageWriter.write(null, new IIOImage(rendition, null, null), param);
+        } finally {
+            imageWriter.dispose();
+        }
+
+        // A rendition which is written again replaces the existing file, so only the difference in size is added
+        long replaced = file.length();
+
+        // Move the file in place when complete, so a partially written rendition is never read
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            if (usedBytes >= 0) {
+                usedBytes += file.length() - replaced;
+            }
+        }
+    }
+
+    /**
+     * Remove the least recently used renditions until the cache is within its maximum size.
+     */
+    private synchronized void evict() {
+        File[] files = directory.listFiles((dir, name) -> !name.endsWith(".tmp"));
+
+        if (null == files) {
+            return;
+        }
+
+        if (usedBytes < 0) {
+            usedBytes = 0;
+
+            for (File f : files) {
+                usedBytes += f.length();
+            }
+        }
+
+        if (usedBytes <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for (int i = 0; i < files.length && usedBytes > maxBytes; i++) {
+            long length = files[i].length();
+
+            if (files[i].delete()) {
+                usedBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Return the possible files of a rendition, the first for renditions stored as JPEG and the second for PNG.
+     */
+    private File[] getFiles(File source, Dimension target) {
+        String key = source.getAbsolutePath() + "|" + source.length() + "|" + source.lastModified();
+        String name = hash(key) + "-" + target.width + "x" + target.height;
+
+        return new File[]{new File(directory, name + ".jpg"), new File(directory, name + ".png")};
+    }
+
+    private static boolean isJpeg(File source) {
+        String name = source.getName().toLowerCase();
+
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package nl.yannickl88.imageview.image;
+
+import nl.yannickl88.imageview.logging.Logger;
+import nl.yannickl88.imageview.model.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store of the signatures used by the {@see DuplicateImageChecker}, for all images of a library. The signatures are
+ * kept in slots, one per image, which can be saved next to the library so they never have to be calculated again.
+ *
+ * A signature is stored together with the perceptual hash of the image it was calculated for. When the image is
+ * changed, its hash no longer matches and the signature is calculated again.
+ */
+public class SignatureStore {
+    private static final int VERSION = 1;
+    private static final int SIGNATURE_LENGTH = DuplicateImageChecker.SIGNATURE_LENGTH;
+
+    private final HashMap<String, Integer> slots;
+    private final ReentrantReadWriteLock lock;
+    private final AtomicBoolean changed;
+    private byte[][] data;
+    private long[] hashes;
+    private String[] paths;
+    private int size;
+
+    public SignatureStore() {
+        slots = new HashMap<>();
+        lock = new ReentrantReadWriteLock();
+        changed = new AtomicBoolean(false);
+        data = new byte[16][];
+        hashes = new long[16];
+        paths = new String[16];
+        size = 0;
+    }
+
+    /**
+     * Return the signature of an image, the signature is calculated if it is not stored yet. The returned array is the
+     * stored signature and must not be modified.
+     */
+    public byte[] get(Image image) {
+        lock.readLock().lock();
+
+        try {
+            Integer slot = slots.get(image.metadata.path);
+
+            if (null != slot && hashes[slot] == image.metadata.hash) {
+                return data[slot];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        byte[] signature = DuplicateImageChecker.getSignature(image.thumb);
+        put(image.metadata.path, image.metadata.hash, signature);
+
+        return signature;
+    }
+
+    /**
+     * Return the number of stored signatures.
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the signatures of all images which are not in the given list. The freed slots are reused by compacting
+     * the store.
+     */
+    public void retain(List<Image> images) {
+        HashSet<String> keep = new HashSet<>();
+
+        for (Image i : images) {
+            keep.add(i.metadata.path);
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            if (keep.containsAll(slots.keySet())) {
+                return;
+            }
+
+            byte[][] oldData = data;
+            long[] oldHashes = hashes;
+            String[] oldPaths = paths;
+            int oldSize = size;
+
+            slots.clear();
+            data = new byte[oldData.length][];
+            hashes = new long[oldHashes.length];
+            paths = new String[oldPaths.length];
+            size = 0;
+
+            for (int slot = 0; slot < oldSize; slot++) {
+                if (null != oldPaths[slot] && keep.contains(oldPaths[slot])) {
+                    putSlot(oldPaths[slot], oldHashes[slot], oldData[slot]);
+                }
+            }
+
+            changed.set(true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Load all signatures stored in a file. A file which is missing or written by another version is ignored.
+     */
+    public void load(File file) {
+        if (null == file || !file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION || in.readInt() != SIGNATURE_LENGTH) {
+                return;
+            }
+
+            int count = in.readInt();
+
+            lock.writeLock().lock();
+
+            try {
+                for (int i = 0; i < count; i++) {
+                    String path = in.readUTF();
+                    long hash = in.readLong();
+                    byte[] signature = new byte[SIGNATURE_LENGTH];
+                    in.readFully(signature);
+
+                    putSlot(path, hash, signature);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            Logger.log(e);
+        }
+    }
+
+    /**
+     * Save all signatures to a file, this does nothing when nothing has changed since the last load or save. Signatures
+     * which are added while saving mark the store as changed again, so they are written by the next save.
+     */
+    public void save(File file) {
+        if (null == file || !changed.getAndSet(false)) {
+            return;
+        }
+
+        lock.readLock().lock();
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(VERSION);
+                out.writeInt(SIGNATURE_LENGTH);
+                out.writeInt(slots.size());
+
+                for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                    int slot = entry.getValue();
+
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(hashes[slot]);
+                    out.write(data[slot]);
+                }
+            }
+        } catch (IOException e) {
+            changed.set(true);
+            Logger.log(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(String path, long hash, byte[] signature) {
+        lock.writeLock().lock();
+
+        try {
+            putSlot(path, hash, signature);
+            changed.set(true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Store a signature in the slot of a path, a new slot is used if the path has none yet. The signature is stored as
+     * is, so it must not be modified afterwards.
+     *
+     * NOTE: the write lock must be held.
+     */
+    private void putSlot(String path, long hash, byte[] signature) {
+        Integer slot = slots.get(path);
+
+        if (null == slot) {
+            slot = size++;
+
+            if (slot == hashes.length) {
+                int capacity = hashes.length * 2;
+
+                data = Arrays.copyOf(data, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                paths = Arrays.copyOf(paths, capacity);
+            }
+
+            slots.put(path, slot);
+            paths[slot] = path;
+        }
+
+        hashes[slot] = hash;
+        data[slot] = signature;
+    }
+}
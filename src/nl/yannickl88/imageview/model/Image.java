@@ -1,5 +1,7 @@
 package nl.yannickl88.imageview.model;
 
+import nl.yannickl88.imageview.image.PerceptualHash;
+
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -10,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Data wrapper for an image in the library. This contains a thumbnail and some metadata.
@@ -18,21 +21,28 @@ public class Image {
     public static final int THUMB_SIZE = 150;
 
     /**
-     * Metadata for an image. This contains information about width, height, modification time, original file path and
-     * labels for an image.
+     * Metadata for an image. This contains information about width, height, modification time, original file path,
+     * labels and the perceptual hash for an image. The hash can be {@code null}, in which case it is calculated from
+     * the thumbnail.
      */
     public static class Metadata {
         public final int width, height;
         public final String path;
         public final Set<String> labels;
         public final long ctime;
+        public final Long hash;
 
         public Metadata(int width, int height, String path, long ctime, Set<String> labels) {
+            this(width, height, path, ctime, labels, null);
+        }
+
+        public Metadata(int width, int height, String path, long ctime, Set<String> labels, Long hash) {
             this.path = path;
             this.ctime = ctime;
             this.labels = labels;
             this.width = width;
             this.height = height;
+            this.hash = hash;
         }
     }
 
@@ -44,12 +54,17 @@ public class Image {
         public final int width, height;
         public final String name;
         public final String path;
-        public final List<String> labels;
         public final long ctime;
+        public final long hash;
         private final Image image;
+        private final LabelDictionary dictionary;
+        private volatile int[] labels;
+        private List<String> decodedLabels = null;
 
-        private BoundMetadata(Image image, Metadata metadata) {
+        private BoundMetadata(Image image, Metadata metadata, long hash, LabelDictionary dictionary) {
             this.image = image;
+            this.dictionary = dictionary;
+            this.hash = hash;
 
             width = metadata.width;
             height = metadata.height;
@@ -57,24 +72,70 @@ public class Image {
             ctime = metadata.ctime;
             name = Paths.get(path).getFileName().toString();
 
-            labels = new ArrayList<>();
-
-            updateLabels(metadata.labels);
+            labels = dictionary.encode(metadata.labels);
         }
 
         /**
-         * Set the labels for the image.
+         * Set the labels for the image. When the image has a label change listener, the labels are replaced by that
+         * listener, so the owner of the image can do so while holding its own lock.
          */
         public void setLabels(Set<String> labels) {
-            updateLabels(labels);
+            int[] newLabels = dictionary.encode(labels);
+            LabelChangeListener listener = image.labelListener;
+
+            if (null != listener) {
+                listener.onLabelChange(image, newLabels, () -> swapLabels(newLabels));
+            } else {
+                swapLabels(newLabels);
+            }
 
             image.notifyOfImageChange();
         }
 
-        private void updateLabels(Set<String> labels) {
-            this.labels.clear();
-            this.labels.addAll(labels);
-            this.labels.sort(String::compareTo);
+        /**
+         * Return the labels of the image, sorted alphabetically. The labels are decoded once after each change, so the
+         * returned list is shared and cannot be modified.
+         */
+        public synchronized List<String> getLabels() {
+            if (null == decodedLabels) {
+                decodedLabels = Collections.unmodifiableList(dictionary.decode(labels));
+            }
+
+            return decodedLabels;
+        }
+
+        /**
+         * Return the sorted ids of the labels of the image.
+         *
+         * NOTE: the returned array is shared and should not be modified.
+         */
+        public int[] getLabelIds() {
+            return labels;
+        }
+
+        /**
+         * Return the number of labels of the image.
+         */
+        public int getLabelCount() {
+            return labels.length;
+        }
+
+        /**
+         * Check if the image has the label with the given id.
+         */
+        public boolean hasLabel(int id) {
+            return Arrays.binarySearch(labels, id) >= 0;
+        }
+
+        /**
+         * Replace the labels and return the labels from before.
+         */
+        private synchronized int[] swapLabels(int[] newLabels) {
+            int[] oldLabels = labels;
+            labels = newLabels;
+            decodedLabels = null;
+
+            return oldLabels;
         }
     }
 
@@ -123,43 +184,57 @@ public class Image {
     public final BoundMetadata metadata;
     public final BufferedImage thumb;
     private final ArrayList<ImageChangeListener> listeners;
+    private volatile LabelChangeListener labelListener;
 
     public interface ImageChangeListener {
         void onChange(Image image);
     }
 
+    public interface LabelChangeListener {
+        /**
+         * Triggers when the labels of the image are replaced, with the sorted label ids after the change. The listener
+         * replaces the labels by calling swap, which returns the sorted label ids before the change.
+         */
+        void onLabelChange(Image image, int[] newLabels, Supplier<int[]> swap);
+    }
+
     /**
      * Create an Image from a file.
      */
-    public Image(File file) throws IOException {
-        this(file, ImageIO.read(file));
+    public Image(File file, LabelDictionary dictionary) throws IOException {
+        this(file, ImageIO.read(file), dictionary);
     }
 
     /**
      * Intermediate step for creating images from a file.
      */
-    private Image(File file, BufferedImage image) throws IOException {
-        this(createThumb(image), new Metadata(image.getWidth(), image.getHeight(), file.getAbsolutePath(), file.lastModified(), new HashSet<>()));
+    private Image(File file, BufferedImage image, LabelDictionary dictionary) throws IOException {
+        this(createThumb(image), new Metadata(image.getWidth(), image.getHeight(), file.getAbsolutePath(), file.lastModified(), new HashSet<>()), dictionary);
     }
 
     /**
      * Create an image from the base64encoded thumbnail data and the metadata.
      */
-    public Image(String thumbData, Metadata metadata) throws IOException {
-        this(fromBase64String(thumbData), thumbData, metadata);
+    public Image(String thumbData, Metadata metadata, LabelDictionary dictionary) throws IOException {
+        this(fromBase64String(thumbData), thumbData, metadata, dictionary);
     }
 
     /**
      * Create an image from the BufferedImage thumbnail data and the metadata.
      */
-    public Image(BufferedImage thumb, Metadata metadata) throws IOException {
-        this(thumb, toBase64String(thumb), metadata);
+    public Image(BufferedImage thumb, Metadata metadata, LabelDictionary dictionary) throws IOException {
+        this(thumb, toBase64String(thumb), metadata, dictionary);
     }
 
-    private Image(BufferedImage thumb, String thumbData, Metadata metadata) {
+    private Image(BufferedImage thumb, String thumbData, Metadata metadata, LabelDictionary dictionary) {
         this.thumbData = thumbData;
         this.thumb = thumb;
-        this.metadata = new BoundMetadata(this, metadata);
+        this.metadata = new BoundMetadata(
+                this,
+                metadata,
+                null != metadata.hash ? metadata.hash : PerceptualHash.of(thumb),
+                dictionary
+        );
 
         listeners = new ArrayList<>();
     }
@@ -178,6 +253,14 @@ public class Image {
         listeners.remove(listener);
     }
 
+    /**
+     * Set the listener for label changes of this image. This is used by the library which owns the image to keep track
+     * of label usage, so there is only a single listener.
+     */
+    public void setLabelChangeListener(LabelChangeListener listener) {
+        labelListener = listener;
+    }
+
     /**
      * Notify all registered ImageChangeListener for changes to the image.
      */
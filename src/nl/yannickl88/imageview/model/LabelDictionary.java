@@ -0,0 +1,107 @@
+package nl.yannickl88.imageview.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dictionary of all labels known to a library. Each label is stored once and identified by an int, so images only
+ * need to store a sorted array of label ids.
+ *
+ * Ids are assigned in order of first use and never change while the library is open.
+ */
+public class LabelDictionary {
+    private static final int[] EMPTY = new int[0];
+
+    private final HashMap<String, Integer> ids;
+    private final ArrayList<String> labels;
+
+    public LabelDictionary() {
+        ids = new HashMap<>();
+        labels = new ArrayList<>();
+    }
+
+    /**
+     * Return the id for a label, assigning a new id when the label is not yet known.
+     */
+    public synchronized int intern(String label) {
+        Integer id = ids.get(label);
+
+        if (null == id) {
+            id = labels.size();
+
+            labels.add(label);
+            ids.put(label, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Return the id for a label, or -1 if the label is not known.
+     */
+    public synchronized int find(String label) {
+        Integer id = ids.get(label);
+
+        return null == id ? -1 : id;
+    }
+
+    /**
+     * Return the label for an id.
+     */
+    public synchronized String get(int id) {
+        return labels.get(id);
+    }
+
+    /**
+     * Return the number of labels known, all ids are smaller than this value.
+     */
+    public synchronized int size() {
+        return labels.size();
+    }
+
+    /**
+     * Encode the labels into a sorted array of unique label ids.
+     */
+    public int[] encode(Collection<String> labels) {
+        if (labels.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] encoded = new int[labels.size()];
+        int i = 0;
+
+        for (String l : labels) {
+            encoded[i++] = intern(l);
+        }
+
+        Arrays.sort(encoded);
+
+        // Remove any duplicates
+        int n = 0;
+        for (i = 0; i < encoded.length; i++) {
+            if (n == 0 || encoded[n - 1] != encoded[i]) {
+                encoded[n++] = encoded[i];
+            }
+        }
+
+        return n == encoded.length ? encoded : Arrays.copyOf(encoded, n);
+    }
+
+    /**
+     * Decode an array of label ids into the labels, sorted alphabetically.
+     */
+    public List<String> decode(int[] ids) {
+        ArrayList<String> decoded = new ArrayList<>(ids.length);
+
+        for (int id : ids) {
+            decoded.add(get(id));
+        }
+
+        decoded.sort(String::compareTo);
+
+        return decoded;
+    }
+}
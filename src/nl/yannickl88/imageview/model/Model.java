@@ -1,11 +1,18 @@
 package nl.yannickl88.imageview.model;
 
+import nl.yannickl88.imageview.image.DuplicateImageChecker;
+import nl.yannickl88.imageview.image.DuplicateIndex;
+import nl.yannickl88.imageview.image.SignatureStore;
 import nl.yannickl88.imageview.model.library.Library;
 import nl.yannickl88.imageview.model.library.LibraryWatcher;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -16,6 +23,8 @@ public class Model {
     private final Library library;
     private final ArrayList<ModelChangeListener> listeners;
     private final ReentrantLock lock;
+    private final DuplicateIndex duplicates;
+    private final SignatureStore signatures;
     private LibraryWatcher watcher;
     private final ArrayList<Image> images = new ArrayList<>();
 
@@ -39,6 +48,9 @@ public class Model {
         this.library = library;
         lock = new ReentrantLock();
         listeners = new ArrayList<>();
+        signatures = new SignatureStore();
+        signatures.load(getSignatureFile());
+        duplicates = new DuplicateIndex(signatures);
 
         this.library.addChangeListener(newImages -> {
             lock.lock();
@@ -53,6 +65,17 @@ public class Model {
 
             notifyLibraryChange(this.images);
         });
+        this.library.addImageListener(new Library.ImageListener() {
+            @Override
+            public void onAdd(Image image) {
+                duplicates.add(image);
+            }
+
+            @Override
+            public void onRemove(Image image) {
+                duplicates.remove(image);
+            }
+        });
     }
 
     /**
@@ -95,6 +118,70 @@ public class Model {
         library.delete(image);
     }
 
+    /**
+     * Delete many images from the library and from disk at once, each image is removed from the library as soon as its
+     * file is deleted. Returns the images which have been deleted.
+     *
+     * NOTE: also the files are permanently removed.
+     */
+    public List<Image> deleteImages(Collection<Image> images) {
+        return library.delete(images);
+    }
+
+    /**
+     * Return all groups of duplicate images found while images were added to the library.
+     */
+    public List<DuplicateImageChecker.Duplicate> getDuplicates() {
+        return duplicates.getDuplicates();
+    }
+
+    /**
+     * Return the store of signatures used for finding duplicates.
+     */
+    public SignatureStore getSignatureStore() {
+        return signatures;
+    }
+
+    /**
+     * Save the signatures of all images in the library next to the library file, so they are not calculated again
+     * when the library is opened. Signatures of removed images are only dropped once the library is fully loaded, as
+     * before that not all images are known yet.
+     */
+    public void saveSignatures() {
+        if (library.isLoaded()) {
+            signatures.retain(getAllImages());
+        }
+
+        signatures.save(getSignatureFile());
+    }
+
+    /**
+     * Return the file in which the signatures are stored, or null if the library is not saved.
+     */
+    private File getSignatureFile() {
+        if (!isPersistent()) {
+            return null;
+        }
+
+        String name = library.getConfigFile().getName().replaceFirst("\\.icol$", "");
+
+        return new File(library.getConfigFile().getParentFile(), name + ".sig");
+    }
+
+    /**
+     * Register a change listener for the duplicates found in the library.
+     */
+    public void addDuplicateChangeListener(DuplicateIndex.DuplicateChangeListener listener) {
+        duplicates.addChangeListener(listener);
+    }
+
+    /**
+     * Remove a registered change listener for the duplicates found in the library.
+     */
+    public void removeDuplicateChangeListener(DuplicateIndex.DuplicateChangeListener listener) {
+        duplicates.removeChangeListener(listener);
+    }
+
     /**
      * Return all images in the library in a sorted order.
      */
@@ -103,10 +190,71 @@ public class Model {
     }
 
     /**
-     * Return all labels used by any of the images in the library.
+     * Remove a label from all images in the library. The library is saved once when all images are updated.
+     */
+    public void removeLabel(String label) {
+        HashMap<Image, Set<String>> changes = new HashMap<>();
+        int id = getLabelDictionary().find(label);
+
+        if (id < 0) {
+            return;
+        }
+
+        for (Image image : getAllImages()) {
+            if (image.metadata.hasLabel(id)) {
+                HashSet<String> newLabels = new HashSet<>(image.metadata.getLabels());
+                newLabels.remove(label);
+
+                changes.put(image, newLabels);
+            }
+        }
+
+        library.updateLabels(changes);
+    }
+
+    /**
+     * Rename a label for all images in the library. The library is saved once when all images are updated.
+     */
+    public void renameLabel(String oldLabel, String newLabel) {
+        HashMap<Image, Set<String>> changes = new HashMap<>();
+        int id = getLabelDictionary().find(oldLabel);
+
+        if (id < 0) {
+            return;
+        }
+
+        for (Image image : getAllImages()) {
+            if (image.metadata.hasLabel(id)) {
+                HashSet<String> newLabels = new HashSet<>(image.metadata.getLabels());
+                newLabels.remove(oldLabel);
+                newLabels.add(newLabel);
+
+                changes.put(image, newLabels);
+            }
+        }
+
+        library.updateLabels(changes);
+    }
+
+    /**
+     * Return the dictionary of labels for the library.
+     */
+    public LabelDictionary getLabelDictionary() {
+        return library.getLabelDictionary();
+    }
+
+    /**
+     * Return all labels used by any of the images in the library, with the number of images using each label.
+     */
+    public Map<String, Integer> getLabels() {
+        return library.getLabelCounts();
+    }
+
+    /**
+     * Check if all images of the library have been loaded.
      */
-    public Set<String> getLabels() {
-        return library.getAllLabels();
+    public boolean isLoaded() {
+        return library.isLoaded();
     }
 
     /**
@@ -182,6 +330,8 @@ public class Model {
 
         library.save();
         library.dispose();
+        duplicates.dispose();
+        saveSignatures();
         listeners.clear();
     }
 }
@@ -1,6 +1,8 @@
 package nl.yannickl88.imageview.model.library;
 
+import nl.yannickl88.imageview.logging.Logger;
 import nl.yannickl88.imageview.model.Image;
+import nl.yannickl88.imageview.model.LabelDictionary;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -21,26 +23,47 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Library class which represent a group of images in a folder. These images can contain additional information for
  * easy querying.
  */
 public class Library {
+    /**
+     * Number of files which are deleted in parallel when deleting many images at once.
+     */
+    private static final int IO_THREADS = 4;
+
     private final String name;
     private final File root;
     private final ArrayList<Image> images;
     private final ArrayList<LibraryChangeListener> listeners;
-    private final HashSet<String> labels;
+    private final ArrayList<ImageListener> imageListeners;
+    private final LabelDictionary dictionary;
+    private final Image.ImageChangeListener imageListener = this::onImageChange;
+    private final Image.LabelChangeListener labelListener = this::onLabelChange;
+    private int[] labelCounts;
     private final ReentrantLock lock;
     private File config;
-    private boolean isLoaded = false;
+    private volatile boolean isLoaded = false;
+    private boolean inBatch = false;
 
     public interface LibraryChangeListener {
         /**
@@ -49,6 +72,18 @@ public class Library {
         void onLibraryChange(List<Image> images);
     }
 
+    public interface ImageListener {
+        /**
+         * Triggers for each image added to the library.
+         */
+        void onAdd(Image image);
+
+        /**
+         * Triggers for each image removed or deleted from the library.
+         */
+        void onRemove(Image image);
+    }
+
     /**
      * Asynchronous loader for the library data. This helps larger library be more responsive when opening them.
      */
@@ -57,14 +92,16 @@ public class Library {
         private final NodeList images;
         private final XPath xPath;
         private final String rootFolder;
+        private final Map<Integer, String> labels;
 
-        public LibraryLoader(Library library, NodeList images, XPath xPath, String rootFolder) {
+        public LibraryLoader(Library library, NodeList images, XPath xPath, String rootFolder, Map<Integer, String> labels) {
             super();
 
             this.library = library;
             this.images = images;
             this.xPath = xPath;
             this.rootFolder = rootFolder;
+            this.labels = labels;
         }
 
         @Override
@@ -73,12 +110,43 @@ public class Library {
                 NamedNodeMap attributes = images.item(i).getAttributes();
                 HashSet<String> labels = new HashSet<>();
 
-                try {
-                    NodeList labelNodes = (NodeList) xPath.compile("./label").evaluate(images.item(i), XPathConstants.NODESET);
-                    for (int j = 0; j < labelNodes.getLength(); j++) {
-                        labels.add(labelNodes.item(j).getTextContent());
+                if (null != attributes.getNamedItem("labels")) {
+                    // Labels are stored as ids referencing the label dictionary of the file, invalid ids are skipped
+                    for (String id : attributes.getNamedItem("labels").getTextContent().split(" ")) {
+                        if (id.length() == 0) {
+                            continue;
+                        }
+
+                        String label;
+
+                        try {
+                            label = this.labels.get(Integer.parseInt(id));
+                        } catch (NumberFormatException e) {
+                            label = null;
+                        }
+
+                        if (null == label) {
+                            Logger.log("Skipping unknown label id \"" + id + "\" of " + attributes.getNamedItem("src").getTextContent());
+                            continue;
+                        }
+
+                        labels.add(label);
                     }
-                } catch (XPathExpressionException ignored) {
+                } else {
+                    // Older libraries store the labels as child elements
+                    try {
+                        NodeList labelNodes = (NodeList) xPath.compile("./label").evaluate(images.item(i), XPathConstants.NODESET);
+                        for (int j = 0; j < labelNodes.getLength(); j++) {
+                            labels.add(labelNodes.item(j).getTextContent());
+                        }
+                    } catch (XPathExpressionException ignored) {
+                    }
+                }
+
+                // Older libraries have no hash stored, it is then calculated from the thumbnail
+                Long hash = null;
+                if (null != attributes.getNamedItem("hash")) {
+                    hash = Long.parseUnsignedLong(attributes.getNamedItem("hash").getTextContent(), 16);
                 }
 
                 Image.Metadata metadata = new Image.Metadata(
@@ -86,13 +154,15 @@ public class Library {
                         Integer.parseInt(attributes.getNamedItem("height").getTextContent()),
                         Paths.get(rootFolder, attributes.getNamedItem("src").getTextContent()).toString(),
                         Long.parseLong(attributes.getNamedItem("ctime").getTextContent()),
-                        labels
+                        labels,
+                        hash
                 );
 
                 try {
                     library.addSilent(new Image(
                             attributes.getNamedItem("thumb").getTextContent(),
-                            metadata
+                            metadata,
+                            library.dictionary
                     ));
 
                     // every 50 images, notify of any changes
@@ -103,11 +173,9 @@ public class Library {
                 }
             }
 
-            // When we are done, also notify
-            library.notifyLibraryChange();
-            library.recalculateLabels();
-
+            // When we are done, also notify. The library is marked as loaded first, so listeners see the final change.
             library.isLoaded = true;
+            library.notifyLibraryChange();
         }
     }
 
@@ -135,10 +203,20 @@ public class Library {
             String rootFolder = ((String) xPath.compile("//config/root").evaluate(document, XPathConstants.STRING));
             Library library = new Library("root", new File(rootFolder), config);
 
+            // load the label dictionary
+            HashMap<Integer, String> labels = new HashMap<>();
+            NodeList labelNodes = (NodeList) xPath.compile("//labels/label").evaluate(document, XPathConstants.NODESET);
+
+            for (int i = 0; i < labelNodes.getLength(); i++) {
+                Element label = (Element) labelNodes.item(i);
+
+                labels.put(Integer.parseInt(label.getAttribute("id")), label.getTextContent());
+            }
+
             // load all images
             NodeList images = (NodeList) xPath.compile("//images/image").evaluate(document, XPathConstants.NODESET);
 
-            LibraryLoader loader = new LibraryLoader(library, images, xPath, rootFolder);
+            LibraryLoader loader = new LibraryLoader(library, images, xPath, rootFolder, labels);
             loader.start();
 
             return library;
@@ -174,6 +252,23 @@ public class Library {
                 config.appendChild(configRoot);
                 root.appendChild(config);
 
+                // labels element, only the labels which are in use are stored
+                Element labels = document.createElement("labels");
+
+                for (int id = 0; id < labelCounts.length; id++) {
+                    if (labelCounts[id] == 0) {
+                        continue;
+                    }
+
+                    Element label = document.createElement("label");
+                    label.setAttribute("id", String.valueOf(id));
+                    label.setTextContent(dictionary.get(id));
+
+                    labels.appendChild(label);
+                }
+
+                root.appendChild(labels);
+
                 // images element
                 Element images = document.createElement("images");
 
@@ -183,20 +278,23 @@ public class Library {
 
                 for (Image i : items) {
                     Element image = document.createElement("image");
+                    StringBuilder labelIds = new StringBuilder();
+
+                    for (int id : i.metadata.getLabelIds()) {
+                        if (labelIds.length() > 0) {
+                            labelIds.append(' ');
+                        }
+                        labelIds.append(id);
+                    }
 
                     image.setAttribute("src", i.metadata.name);
                     image.setAttribute("ctime", String.valueOf(i.metadata.ctime));
                     image.setAttribute("width", String.valueOf(i.metadata.width));
                     image.setAttribute("height", String.valueOf(i.metadata.height));
+                    image.setAttribute("labels", labelIds.toString());
+                    image.setAttribute("hash", Long.toHexString(i.metadata.hash));
                     image.setAttribute("thumb", i.thumbData);
 
-                    for (String l : i.metadata.labels) {
-                        Element label = document.createElement("label");
-                        label.setTextContent(l);
-
-                        image.appendChild(label);
-                    }
-
                     images.appendChild(image);
                 }
 
@@ -222,8 +320,10 @@ public class Library {
         this.config = config;
 
         listeners = new ArrayList<>();
+        imageListeners = new ArrayList<>();
         images = new ArrayList<>();
-        labels = new HashSet<>();
+        dictionary = new LabelDictionary();
+        labelCounts = new int[0];
 
         lock = new ReentrantLock();
     }
@@ -235,6 +335,28 @@ public class Library {
         listeners.add(listener);
     }
 
+    /**
+     * Register a listener for images being added to or removed from the library. The listener is called for all images
+     * which are already in the library when registering. Listeners are called outside the lock of the library, so an
+     * image which is added while registering can be reported twice.
+     */
+    public void addImageListener(ImageListener listener) {
+        ArrayList<Image> current;
+
+        lock.lock();
+
+        try {
+            imageListeners.add(listener);
+            current = new ArrayList<>(images);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Image i : current) {
+            listener.onAdd(i);
+        }
+    }
+
     /**
      * Return all images currently present in the library.
      */
@@ -247,6 +369,13 @@ public class Library {
         }
     }
 
+    /**
+     * Return the dictionary of labels used by the images of the library.
+     */
+    public LabelDictionary getLabelDictionary() {
+        return dictionary;
+    }
+
     /**
      * Return the configuration file of the library.
      */
@@ -311,13 +440,23 @@ public class Library {
      * Remove an image from the library reference, this does not delete the file on-disk.
      */
     public void remove(Image image) {
+        boolean removed;
+
         lock.lock();
         try {
-            images.remove(image);
+            removed = images.remove(image);
+
+            if (removed) {
+                unbind(image);
+            }
         } finally {
             lock.unlock();
         }
 
+        if (removed) {
+            notifyImageRemove(image);
+        }
+
         notifyLibraryChange();
     }
 
@@ -325,19 +464,110 @@ public class Library {
      * Remove an image from the library reference AND also delete the file on-disk.
      */
     public void delete(Image image) {
+        boolean removed = false;
+
         lock.lock();
         try {
             File f = new File(image.metadata.path);
-            if (f.delete()) {
-                images.remove(image);
+            if (f.delete() && images.remove(image)) {
+                unbind(image);
+                removed = true;
             }
         } finally {
             lock.unlock();
         }
 
+        if (removed) {
+            notifyImageRemove(image);
+        }
+
         notifyLibraryChange();
     }
 
+    /**
+     * Remove many images from the library reference AND also delete the files on-disk. The files are deleted in
+     * parallel, after which all deleted images are removed from the library in a single pass, also when deleting is
+     * interrupted. The library is saved and a single change is emitted at the end. Returns the images which have been
+     * deleted, images of which the file could not be deleted are kept.
+     */
+    public List<Image> delete(Collection<Image> images) {
+        List<Image> deleted = Collections.synchronizedList(new ArrayList<>());
+
+        if (images.isEmpty()) {
+            return deleted;
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+
+        for (Image i : images) {
+            tasks.add(() -> {
+                if (deleteFile(i)) {
+                    deleted.add(i);
+                }
+
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(IO_THREADS, tasks.size()));
+        boolean interrupted = false;
+
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+
+        // Files which are being deleted are finished, files which were not started yet are kept
+        executor.shutdownNow();
+
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        HashSet<Image> removed = new HashSet<>(deleted);
+
+        lock.lock();
+        try {
+            this.images.removeIf(removed::contains);
+
+            for (Image i : removed) {
+                unbind(i);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        notifyImageRemove(removed);
+        save();
+        notifyLibraryChange();
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return new ArrayList<>(deleted);
+    }
+
+    /**
+     * Delete the file of an image. Returns false if the file could not be deleted.
+     */
+    private static boolean deleteFile(Image image) {
+        try {
+            Files.delete(Paths.get(image.metadata.path));
+        } catch (IOException e) {
+            Logger.log(e);
+
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Add an image to the library.
      */
@@ -354,38 +584,120 @@ public class Library {
         lock.lock();
         try {
             images.add(image);
-            labels.addAll(image.metadata.labels);
+
+            countLabels(image.metadata.getLabelIds(), 1);
         } finally {
             lock.unlock();
         }
 
-        image.addChangeListener((i) -> {
-            this.recalculateLabels();
-            save();
-        });
+        image.setLabelChangeListener(labelListener);
+        image.addChangeListener(imageListener);
+
+        notifyImageAdd(image);
     }
 
     /**
-     * Return all labels which have been used by any of the images in the library.
+     * Stop tracking an image which has been removed from the library.
      */
-    public Set<String> getAllLabels() {
-        return labels;
+    private void unbind(Image image) {
+        countLabels(image.metadata.getLabelIds(), -1);
+
+        image.setLabelChangeListener(null);
+        image.removeChangeListener(imageListener);
     }
 
     /**
-     * Recalculate the labels based on all the images.
+     * Replace the labels of an image and update the label usage counts, both while holding the lock so the counts
+     * always match the labels of the images.
      */
-    private void recalculateLabels() {
+    private void onLabelChange(Image image, int[] newLabels, Supplier<int[]> swap) {
         lock.lock();
 
         try {
-            labels.clear();
-            for (Image i : images) {
-                labels.addAll(i.metadata.labels);
+            countLabels(swap.get(), -1);
+            countLabels(newLabels, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add the delta to the usage count of each of the labels.
+     */
+    private void countLabels(int[] ids, int delta) {
+        for (int id : ids) {
+            if (id >= labelCounts.length) {
+                labelCounts = Arrays.copyOf(labelCounts, Math.max(id + 1, dictionary.size()));
+            }
+
+            labelCounts[id] += delta;
+        }
+    }
+
+    /**
+     * Handle a change made to a single image. Changes made as part of a batch are handled when the batch completes.
+     */
+    private void onImageChange(Image image) {
+        lock.lock();
+
+        try {
+            if (inBatch) {
+                return;
             }
         } finally {
             lock.unlock();
         }
+
+        save();
+    }
+
+    /**
+     * Set the labels for many images at once. All changes are applied while holding the library lock, after which the
+     * library is saved once and a single change is emitted.
+     */
+    public void updateLabels(Map<Image, Set<String>> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            inBatch = true;
+
+            for (Map.Entry<Image, Set<String>> change : changes.entrySet()) {
+                change.getKey().metadata.setLabels(change.getValue());
+            }
+        } finally {
+            inBatch = false;
+
+            lock.unlock();
+        }
+
+        save();
+        notifyLibraryChange();
+    }
+
+    /**
+     * Return all labels which have been used by any of the images in the library, with the number of images using
+     * each label.
+     */
+    public Map<String, Integer> getLabelCounts() {
+        lock.lock();
+
+        try {
+            HashMap<String, Integer> counts = new HashMap<>();
+
+            for (int id = 0; id < labelCounts.length; id++) {
+                if (labelCounts[id] > 0) {
+                    counts.put(dictionary.get(id), labelCounts[id]);
+                }
+            }
+
+            return counts;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -393,6 +705,54 @@ public class Library {
      */
     public void dispose() {
         listeners.clear();
+        imageListeners.clear();
+    }
+
+    /**
+     * Notify all registered ImageListener for an added image.
+     */
+    private void notifyImageAdd(Image image) {
+        ArrayList<ImageListener> listeners;
+
+        lock.lock();
+
+        try {
+            listeners = new ArrayList<>(imageListeners);
+        } finally {
+            lock.unlock();
+        }
+
+        for (ImageListener l : listeners) {
+            l.onAdd(image);
+        }
+    }
+
+    /**
+     * Notify all registered ImageListener for a removed image.
+     */
+    private void notifyImageRemove(Image image) {
+        notifyImageRemove(Collections.singletonList(image));
+    }
+
+    /**
+     * Notify all registered ImageListener for many removed images.
+     */
+    private void notifyImageRemove(Collection<Image> images) {
+        ArrayList<ImageListener> listeners;
+
+        lock.lock();
+
+        try {
+            listeners = new ArrayList<>(imageListeners);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Image image : images) {
+            for (ImageListener l : listeners) {
+                l.onRemove(image);
+            }
+        }
     }
 
     /**
@@ -55,7 +55,7 @@ public class LibraryWatcher extends Thread {
 
                 for (String f : filesToAdd) {
                     try {
-                        library.add(new Image(new File(f)));
+                        library.add(new Image(new File(f), library.getLabelDictionary()));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
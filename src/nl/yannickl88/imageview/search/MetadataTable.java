@@ -0,0 +1,189 @@
+package nl.yannickl88.imageview.search;
+
+import nl.yannickl88.imageview.model.Image;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Columnar table of the metadata of a list of images. Each column is a primitive array indexed by the ordinal of the
+ * image in the list, which allows evaluating range queries for many images at once.
+ *
+ * For each column a sorted index is built the first time it is queried. A range query then only needs two binary
+ * searches and marks the ordinals in between.
+ */
+public class MetadataTable {
+    private final Image[] images;
+    private final int[] width, height, aspect;
+    private final long[] pixels, ctime;
+    private final Index[] indexes;
+
+    /**
+     * Columns which can be queried. The aspect ratio is stored as the width per 1000 pixels of height.
+     */
+    public enum Column {
+        WIDTH, HEIGHT, PIXELS, ASPECT, CTIME;
+
+        /**
+         * Return the value of the column for a single image.
+         */
+        public long valueOf(Image image) {
+            switch (this) {
+                case WIDTH:
+                    return image.metadata.width;
+                case HEIGHT:
+                    return image.metadata.height;
+                case PIXELS:
+                    return (long) image.metadata.width * image.metadata.height;
+                case ASPECT:
+                    return image.metadata.height == 0 ? 0 : image.metadata.width * 1000L / image.metadata.height;
+                default:
+                    return image.metadata.ctime;
+            }
+        }
+    }
+
+    /**
+     * Sorted index of a column, containing the values in ascending order and the ordinal for each of the values.
+     */
+    private static class Index {
+        private final long[] values;
+        private final int[] ordinals;
+
+        private Index(long[] values, int[] ordinals) {
+            this.values = values;
+            this.ordinals = ordinals;
+        }
+    }
+
+    public MetadataTable(List<Image> images) {
+        int n = images.size();
+
+        this.images = images.toArray(new Image[0]);
+        width = new int[n];
+        height = new int[n];
+        aspect = new int[n];
+        pixels = new long[n];
+        ctime = new long[n];
+        indexes = new Index[Column.values().length];
+
+        for (int i = 0; i < n; i++) {
+            Image image = this.images[i];
+
+            width[i] = image.metadata.width;
+            height[i] = image.metadata.height;
+            aspect[i] = (int) Column.ASPECT.valueOf(image);
+            pixels[i] = Column.PIXELS.valueOf(image);
+            ctime[i] = image.metadata.ctime;
+        }
+    }
+
+    /**
+     * Return the number of images in the table.
+     */
+    public int size() {
+        return images.length;
+    }
+
+    /**
+     * Return the image for an ordinal.
+     */
+    public Image get(int ordinal) {
+        return images[ordinal];
+    }
+
+    /**
+     * Return the ordinals of all images for which the value of the column is between min and max, both inclusive.
+     */
+    public BitSet range(Column column, long min, long max) {
+        BitSet result = new BitSet(images.length);
+
+        if (min > max) {
+            return result;
+        }
+
+        Index index = getIndex(column);
+        int from = lowerBound(index.values, min);
+        int to = max == Long.MAX_VALUE ? index.values.length : lowerBound(index.values, max + 1);
+
+        for (int i = from; i < to; i++) {
+            result.set(index.ordinals[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the sorted index of a column, the index is built the first time it is needed. The values are sorted as
+     * primitives, after which each ordinal is packed with the position of its value in the sorted values into a single
+     * long, so sorting those also sorts the ordinals by value without boxing.
+     */
+    private synchronized Index getIndex(Column column) {
+        Index index = indexes[column.ordinal()];
+
+        if (null == index) {
+            int n = images.length;
+            long[] values = new long[n];
+
+            for (int i = 0; i < n; i++) {
+                values[i] = getValue(column, i);
+            }
+
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+
+            long[] keys = new long[n];
+
+            for (int i = 0; i < n; i++) {
+                keys[i] = (long) lowerBound(sorted, values[i]) << 32 | i;
+            }
+
+            Arrays.sort(keys);
+
+            int[] ordinals = new int[n];
+
+            for (int i = 0; i < n; i++) {
+                ordinals[i] = (int) keys[i];
+            }
+
+            index = indexes[column.ordinal()] = new Index(sorted, ordinals);
+        }
+
+        return index;
+    }
+
+    private long getValue(Column column, int ordinal) {
+        switch (column) {
+            case WIDTH:
+                return width[ordinal];
+            case HEIGHT:
+                return height[ordinal];
+            case PIXELS:
+                return pixels[ordinal];
+            case ASPECT:
+                return aspect[ordinal];
+            default:
+                return ctime[ordinal];
+        }
+    }
+
+    /**
+     * Return the first position in the sorted values which is not smaller than the value.
+     */
+    private static int lowerBound(long[] values, long value) {
+        int low = 0, high = values.length;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (values[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
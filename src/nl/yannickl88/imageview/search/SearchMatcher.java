@@ -1,21 +1,195 @@
 package nl.yannickl88.imageview.search;
 
 import nl.yannickl88.imageview.model.Image;
+import nl.yannickl88.imageview.model.LabelDictionary;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
- * Matcher class for checking if a query matches an image.
+ * Matcher class for checking if a query matches an image. The query is resolved against the label dictionary once, so
+ * matching an image only needs to check the label ids of that image.
+ *
+ * Besides labels, a query can contain range terms on the metadata of an image in the form {@code key:min-max}, where
+ * either bound can be left out, or {@code key:value} for an exact value. Supported keys are {@code width},
+ * {@code height}, {@code mp} (megapixels), {@code ratio} (width / height), {@code year} and {@code orientation}
+ * ({@code landscape}, {@code portrait} or {@code square}). For example: {@code orientation:landscape width:4000- year:2023}.
+ * A range term which cannot be parsed, like {@code width:} while it is being typed, matches no images.
  */
 public class SearchMatcher {
+    private final BitSet matchingLabels;
+    private final boolean hasLabelQuery;
+    private final ArrayList<Range> ranges;
+
     /**
-     * Check if the query matches for a given image.
+     * Range of allowed values for a column of the image metadata, both bounds are inclusive.
      */
-    public static boolean matches(Image image, String query) {
-        for (String l : image.metadata.labels) {
-            if (l.contains(query)) {
+    private static class Range {
+        /**
+         * Range which no value is in, used for terms which cannot be parsed.
+         */
+        private static final Range NONE = new Range(MetadataTable.Column.WIDTH, 1, 0);
+
+        private final MetadataTable.Column column;
+        private final long min, max;
+
+        private Range(MetadataTable.Column column, long min, long max) {
+            this.column = column;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    public SearchMatcher(LabelDictionary dictionary, String query) {
+        matchingLabels = new BitSet();
+        ranges = new ArrayList<>();
+
+        StringBuilder labelQuery = new StringBuilder();
+
+        for (String term : query.trim().split(" +")) {
+            if (term.contains(":")) {
+                Range range = parseRange(term);
+
+                ranges.add(null != range ? range : Range.NONE);
+            } else {
+                if (labelQuery.length() > 0) {
+                    labelQuery.append(' ');
+                }
+                labelQuery.append(term);
+            }
+        }
+
+        hasLabelQuery = labelQuery.length() > 0;
+
+        for (int id = 0, n = dictionary.size(); hasLabelQuery && id < n; id++) {
+            if (dictionary.get(id).contains(labelQuery)) {
+                matchingLabels.set(id);
+            }
+        }
+    }
+
+    /**
+     * Return all images of the table which match the query, in the order of the table. All range terms are evaluated
+     * for the whole table at once using the indexes of the table.
+     */
+    public List<Image> filter(MetadataTable table) {
+        ArrayList<Image> result = new ArrayList<>();
+        BitSet candidates = new BitSet(table.size());
+        candidates.set(0, table.size());
+
+        for (Range r : ranges) {
+            candidates.and(table.range(r.column, r.min, r.max));
+        }
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Image image = table.get(i);
+
+            if (matchesLabels(image)) {
+                result.add(image);
+            }
+        }
+
+        return result;
+    }
+
+    private boolean matchesLabels(Image image) {
+        if (!hasLabelQuery) {
+            return true;
+        }
+
+        for (int id : image.metadata.getLabelIds()) {
+            if (matchingLabels.get(id)) {
                 return true;
             }
         }
 
         return false;
     }
+
+    /**
+     * Parse a range term, returns {@code null} if the term is not a valid (or not yet complete) range.
+     */
+    private static Range parseRange(String term) {
+        String key = term.substring(0, term.indexOf(':'));
+        String value = term.substring(term.indexOf(':') + 1);
+
+        if (value.length() == 0) {
+            return null;
+        }
+
+        try {
+            switch (key) {
+                case "width":
+                    return parseRange(MetadataTable.Column.WIDTH, value, 1);
+                case "height":
+                    return parseRange(MetadataTable.Column.HEIGHT, value, 1);
+                case "mp":
+                    return parseRange(MetadataTable.Column.PIXELS, value, 1000000);
+                case "ratio":
+                    return parseRange(MetadataTable.Column.ASPECT, value, 1000);
+                case "year":
+                    return parseYearRange(value);
+                case "orientation":
+                    return parseOrientation(value);
+                default:
+                    return null;
+            }
+        } catch (NumberFormatException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse a range in the form {@code min-max}, {@code min-}, {@code -max} or {@code value}. Values are multiplied by
+     * the scale to match the unit of the column.
+     */
+    private static Range parseRange(MetadataTable.Column column, String value, long scale) {
+        if (!value.contains("-")) {
+            long exact = Math.round(Double.parseDouble(value) * scale);
+
+            return new Range(column, exact, exact);
+        }
+
+        String min = value.substring(0, value.indexOf('-'));
+        String max = value.substring(value.indexOf('-') + 1);
+
+        return new Range(
+                column,
+                min.length() == 0 ? Long.MIN_VALUE : Math.round(Double.parseDouble(min) * scale),
+                max.length() == 0 ? Long.MAX_VALUE : Math.round(Double.parseDouble(max) * scale)
+        );
+    }
+
+    /**
+     * Parse a range of years, this matches the modification time from the start of the first year until the end of the
+     * last year.
+     */
+    private static Range parseYearRange(String value) {
+        Range years = parseRange(MetadataTable.Column.CTIME, value, 1);
+        long min = years.min == Long.MIN_VALUE ? Long.MIN_VALUE : startOfYear(years.min);
+        long max = years.max == Long.MAX_VALUE ? Long.MAX_VALUE : startOfYear(years.max + 1) - 1;
+
+        return new Range(MetadataTable.Column.CTIME, min, max);
+    }
+
+    private static long startOfYear(long year) {
+        return LocalDate.of((int) year, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static Range parseOrientation(String value) {
+        switch (value) {
+            case "landscape":
+                return new Range(MetadataTable.Column.ASPECT, 1001, Long.MAX_VALUE);
+            case "portrait":
+                return new Range(MetadataTable.Column.ASPECT, Long.MIN_VALUE, 999);
+            case "square":
+                return new Range(MetadataTable.Column.ASPECT, 1000, 1000);
+            default:
+                return null;
+        }
+    }
 }
@@ -1,20 +1,44 @@
 package nl.yannickl88.imageview.view;
 
 import nl.yannickl88.imageview.image.DuplicateImageChecker;
+import nl.yannickl88.imageview.model.Image;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
+/**
+ * Dialog showing the groups of duplicate images. The groups are shown in a list which only renders the visible rows,
+ * so it stays responsive with thousands of groups. The selected group is merged with the merge button or the delete
+ * key.
+ */
 public class DuplicateImagesView extends JDialog {
     private final JProgressBar progressBar;
     private final JButton startButton;
-    private final JPanel items;
+    private final JButton mergeAllButton;
+    private final ResultListModel results;
+    private final JList<DuplicateImageChecker.Duplicate> items;
+    private final Action mergeAction;
+    /**
+     * Minimum width of the rows, rows are made wider to fit the largest group shown.
+     */
+    private static final int MIN_CELL_WIDTH = 300;
     private ActionHandler handler;
+    private boolean started = false;
 
     public interface ActionHandler {
         void onStart();
+        void onStop();
+        void onClose();
         void onMerge(DuplicateImageChecker.Duplicate images);
+        void onMergeAll();
     }
 
     public DuplicateImagesView(Frame owner) {
@@ -29,12 +53,49 @@ public class DuplicateImagesView extends JDialog {
         progressBar.setStringPainted(true);
 
         startButton = new JButton("Start");
-        startButton.addActionListener(e -> handler.onStart());
+        startButton.addActionListener(e -> {
+            if (started) {
+                handler.onStop();
+            } else {
+                handler.onStart();
+            }
+        });
+
+        mergeAction = new AbstractAction("Merge") {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                DuplicateImageChecker.Duplicate selected = items.getSelectedValue();
+
+                if (null != selected) {
+                    handler.onMerge(selected);
+                }
+            }
+        };
+        mergeAction.setEnabled(false);
+
+        mergeAllButton = new JButton("Merge all");
+        mergeAllButton.addActionListener(e -> handler.onMergeAll());
+
+        JPanel buttons = new JPanel(new GridLayout(1, 0));
+        buttons.add(startButton);
+        buttons.add(new JButton(mergeAction));
+        buttons.add(mergeAllButton);
 
         topPanel.add(progressBar, BorderLayout.CENTER);
-        topPanel.add(startButton, BorderLayout.EAST);
+        topPanel.add(buttons, BorderLayout.EAST);
+
+        results = new ResultListModel();
+        ResultRenderer renderer = new ResultRenderer();
 
-        items = new JPanel(new GridLayout(0, 1));
+        items = new JList<>(results);
+        items.setCellRenderer(renderer);
+        items.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Fixed cell sizes, so the list does not need to render every row to determine its size
+        items.setFixedCellHeight(renderer.getPreferredSize().height);
+        items.setFixedCellWidth(MIN_CELL_WIDTH);
+        items.addListSelectionListener(e -> mergeAction.setEnabled(!items.isSelectionEmpty()));
+        items.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "merge");
+        items.getActionMap().put("merge", mergeAction);
 
         add(topPanel, BorderLayout.NORTH);
 
@@ -42,6 +103,13 @@ public class DuplicateImagesView extends JDialog {
         scrollPane.getVerticalScrollBar().setUnitIncrement(20);
 
         add(scrollPane, BorderLayout.CENTER);
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                handler.onClose();
+            }
+        });
     }
 
     public void setHandler(ActionHandler handler) {
@@ -60,24 +128,165 @@ public class DuplicateImagesView extends JDialog {
     }
 
     public void setStarted(boolean started) {
-        this.startButton.setEnabled(!started);
+        this.started = started;
+        this.startButton.setText(started ? "Stop" : "Start");
+    }
+
+    /**
+     * Ask for confirmation before merging all groups, as merging permanently deletes files.
+     */
+    public boolean confirmMergeAll(int groups, int files) {
+        int confirmed = JOptionPane.showConfirmDialog(
+                this,
+                String.format("Merging %d groups deletes %d files, this cannot be undone. Are you sure?", groups, files),
+                "Merge all",
+                JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE
+        );
+
+        return confirmed == JOptionPane.OK_OPTION;
+    }
+
+    /**
+     * Show the outcome of a merge, files which could not be deleted are kept in the library.
+     */
+    public void showMergeResult(int deleted, int failed) {
+        if (failed == 0) {
+            progressBar.setString(String.format("Deleted %d files", deleted));
+            return;
+        }
+
+        JOptionPane.showMessageDialog(
+                this,
+                String.format("Deleted %d files, %d files could not be deleted and are kept.", deleted, failed),
+                "Merge",
+                JOptionPane.WARNING_MESSAGE
+        );
     }
 
+    /**
+     * Show the given results, only the rows of groups which changed are updated.
+     */
     public void updateResults(List<DuplicateImageChecker.Duplicate> results) {
-        items.removeAll();
+        this.results.setResults(results);
+        items.setFixedCellWidth(Math.max(MIN_CELL_WIDTH, this.results.getWidestGroup()));
+        mergeAllButton.setEnabled(!results.isEmpty());
+    }
+
+    /**
+     * List model with the groups of duplicates which are shown.
+     */
+    private static class ResultListModel extends AbstractListModel<DuplicateImageChecker.Duplicate> {
+        private ArrayList<DuplicateImageChecker.Duplicate> results = new ArrayList<>();
+        private int widestGroup = 0;
+
+        @Override
+        public int getSize() {
+            return results.size();
+        }
+
+        @Override
+        public DuplicateImageChecker.Duplicate getElementAt(int index) {
+            return results.get(index);
+        }
+
+        /**
+         * Update the shown groups to the new results. Groups are matched by their id, so only the rows of groups which
+         * were removed, added or replaced are reported and the selection of the other rows is kept.
+         */
+        private void setResults(List<DuplicateImageChecker.Duplicate> newResults) {
+            HashSet<Integer> newIds = new HashSet<>();
 
-        for (DuplicateImageChecker.Duplicate r : results) {
-            JPanel row = new JPanel(new BorderLayout());
-            JButton button = new JButton("Merge");
-            button.addActionListener(e -> handler.onMerge(r));
-            row.add(button, BorderLayout.WEST);
-            row.add(new DuplicatesView(r.duplicates), BorderLayout.CENTER);
+            for (DuplicateImageChecker.Duplicate d : newResults) {
+                newIds.add(d.id);
+            }
 
-            items.add(row);
+            // Remove the groups which are gone, from the end so the indexes of the runs stay valid
+            for (int i = results.size() - 1; i >= 0; i--) {
+                if (newIds.contains(results.get(i).id)) {
+                    continue;
+                }
+
+                int to = i;
+
+                while (i > 0 && !newIds.contains(results.get(i - 1).id)) {
+                    i--;
+                }
+
+                results.subList(i, to + 1).clear();
+                fireIntervalRemoved(this, i, to);
+            }
+
+            HashSet<Integer> oldIds = new HashSet<>();
+
+            for (DuplicateImageChecker.Duplicate d : results) {
+                oldIds.add(d.id);
+            }
+
+            // The remaining groups are all in the new results, walk both lists and insert, move or replace rows
+            for (int i = 0; i < newResults.size(); i++) {
+                DuplicateImageChecker.Duplicate duplicate = newResults.get(i);
+
+                if (i < results.size() && results.get(i).id == duplicate.id) {
+                    if (results.get(i) != duplicate) {
+                        results.set(i, duplicate);
+                        fireContentsChanged(this, i, i);
+                    }
+                } else if (!oldIds.contains(duplicate.id)) {
+                    results.add(i, duplicate);
+                    fireIntervalAdded(this, i, i);
+                } else {
+                    for (int j = i + 1; j < results.size(); j++) {
+                        if (results.get(j).id == duplicate.id) {
+                            results.remove(j);
+                            fireIntervalRemoved(this, j, j);
+                            break;
+                        }
+                    }
+
+                    results.add(i, duplicate);
+                    fireIntervalAdded(this, i, i);
+                }
+            }
+
+            widestGroup = 0;
+
+            for (DuplicateImageChecker.Duplicate d : results) {
+                widestGroup = Math.max(widestGroup, DuplicatesView.getWidth(d.duplicates));
+            }
         }
 
-        items.revalidate();
-        revalidate();
-        repaint();
+        /**
+         * Return the width needed to show the largest group.
+         */
+        private int getWidestGroup() {
+            return widestGroup;
+        }
+    }
+
+    /**
+     * Renderer for a row of the results. A single row is reused for painting all visible rows of the list.
+     */
+    private static class ResultRenderer extends JPanel implements ListCellRenderer<DuplicateImageChecker.Duplicate> {
+        private final DuplicatesView duplicatesView;
+
+        private ResultRenderer() {
+            super(new BorderLayout());
+
+            duplicatesView = new DuplicatesView(Collections.emptySet());
+            duplicatesView.setPreferredSize(new Dimension(0, Image.THUMB_SIZE));
+            duplicatesView.setOpaque(false);
+
+            setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
+            add(duplicatesView, BorderLayout.CENTER);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends DuplicateImageChecker.Duplicate> list, DuplicateImageChecker.Duplicate value, int index, boolean isSelected, boolean cellHasFocus) {
+            duplicatesView.setImages(value.duplicates);
+            setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+
+            return this;
+        }
     }
 }
@@ -7,19 +7,33 @@ import java.awt.*;
 import java.util.Set;
 
 public class DuplicatesView extends JPanel {
-    private final Set<Image> images;
+    private Set<Image> images;
 
     public DuplicatesView(Set<Image> images) {
         super();
+
+        setImages(images);
+    }
+
+    /**
+     * Show another set of images, this allows the view to be reused for rendering many groups.
+     */
+    public void setImages(Set<Image> images) {
         this.images = images;
+        this.setPreferredSize(new Dimension(getWidth(images), Image.THUMB_SIZE));
+    }
 
+    /**
+     * Return the width needed to show the images next to each other.
+     */
+    public static int getWidth(Set<Image> images) {
         int width = 0;
 
         for (Image i : images) {
             width += i.thumb.getWidth() + 3;
         }
 
-        this.setPreferredSize(new Dimension(width, Image.THUMB_SIZE));
+        return width;
     }
 
     @Override
@@ -88,7 +88,7 @@ public class ImageThumbView extends JPanel {
                 this
         );
 
-        if (image.metadata.labels.size() > 0 && hovered) {
+        if (image.metadata.getLabelCount() > 0 && hovered) {
             Polygon labelPoints = new Polygon();
 
             labelPoints.addPoint(SIZE - 5 + offsetX, SIZE - 5 + offsetY);
@@ -103,7 +103,7 @@ public class ImageThumbView extends JPanel {
             g2d.setColor(new Color(201, 211, 212));
             g2d.setFont(new Font(g2d.getFont().getFontName(), Font.PLAIN, 9));
 
-            int count = image.metadata.labels.size();
+            int count = image.metadata.getLabelCount();
 
             if (count > 9) {
                 g2d.drawString("9", SIZE - 15 + offsetX, SIZE - 7 + offsetY);
@@ -1,28 +1,62 @@
 package nl.yannickl88.imageview.view;
 
+import nl.yannickl88.imageview.image.DecodedImageCache;
+import nl.yannickl88.imageview.image.ImageDecoder;
+import nl.yannickl88.imageview.image.MemoryGovernor;
+import nl.yannickl88.imageview.image.RenditionCache;
 import nl.yannickl88.imageview.logging.Logger;
 import nl.yannickl88.imageview.model.Image;
 import nl.yannickl88.imageview.view.util.AnimatedImage;
 import nl.yannickl88.imageview.view.util.DrawableImage;
 import nl.yannickl88.imageview.view.util.StaticDrawableImage;
+import nl.yannickl88.imageview.view.util.TiledDrawableImage;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ImageView extends JPanel implements Image.ImageChangeListener {
     private static final ZoomMode defaultZoomMode = ZoomMode.FIT;
+    /**
+     * Maximum number of bytes used for keeping decoded images, at most a quarter of the memory available.
+     */
+    private static final long DECODED_CACHE_SIZE = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+    /**
+     * Change in zoom for each step of the mouse wheel.
+     */
+    private static final double ZOOM_STEP = 1.2;
+    private static final double MAX_ZOOM = 8.0;
+    /**
+     * Time in milliseconds after the last zoom or pan before the image is drawn in full quality again.
+     */
+    private static final int SETTLE_DELAY = 150;
+    private final DecodedImageCache decodedImages;
+    private final ThreadPoolExecutor loader;
+    private final Timer settleTimer;
+    private LoadImageTask currentTask = null;
     private Image image;
     private DrawableImage drawableImage;
+    private boolean isReduced = false;
+    private int panX = 0, panY = 0, dragX, dragY;
+    private double zoom = 1.0;
+    private boolean isInteracting = false;
     private ZoomMode zoomMode = defaultZoomMode;
     private ViewMode viewMode = ViewMode.HIDDEN, hoverMode = ViewMode.HIDDEN;
     private NavigationMode navigationMode = NavigationMode.HAS_NONE;
 
     public enum ZoomMode {
-        FIT, FILL, ACTUAL
+        FIT, FILL, ACTUAL, CUSTOM
     }
 
     public enum ViewMode {
@@ -41,17 +75,64 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
 
     private class LoadImageTask implements Runnable {
         private final Image image;
-
-        public LoadImageTask(Image image) {
+        private final Dimension size;
+        private final ImageDecoder decoder;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Create a task for loading an image into a view of the given size, the size is taken on the event dispatch
+         * thread as the task runs on the loader thread.
+         */
+        public LoadImageTask(Image image, Dimension size) {
             this.image = image;
+            this.size = size;
+            this.decoder = new ImageDecoder();
+        }
+
+        /**
+         * Stop loading the image. A decode started by this task is aborted, a decode started by the prefetch is kept as
+         * the image might be shown again soon.
+         */
+        public void cancel() {
+            cancelled = true;
+            decoder.abort();
+        }
+
+        /**
+         * Show a quick preview of a large image while it is being decoded. The preview skips rows and columns of the
+         * original image, so it is only just large enough for the view. When the view is about as large as the target
+         * of the decoded images, the preview would not be any faster and is skipped. It is also skipped when the image
+         * is already being decoded by the prefetch, as that decode is likely done before the preview.
+         */
+        private void showPreview() throws IOException {
+            if (size.width <= 0 || size.height <= 0 || decodedImages.isAvailable(image) || decodedImages.isPending(image)) {
+                return;
+            }
+
+            int width = image.metadata.width, height = image.metadata.height;
+            int subsampling = ImageDecoder.getSubsampling(width, height, size);
+            int decodeSubsampling = ImageDecoder.getSubsampling(width, height, decodedImages.getTarget());
+
+            if (subsampling < 2 * decodeSubsampling) {
+                return;
+            }
+
+            BufferedImage preview = decoder.decode(new File(image.metadata.path), size);
+
+            setAndValidateDrawableImage(this, new StaticDrawableImage(preview), false);
         }
 
         @Override
         public void run() {
+            if (cancelled) {
+                return;
+            }
+
             try {
                 DrawableImage drawable;
+                boolean reduced = false;
 
-                if (image.metadata.path.endsWith(".gif")) {
+                if (!DecodedImageCache.isSupported(image)) {
                     drawable = new AnimatedImage(new File(image.metadata.path), () -> {
                         if (SwingUtilities.isEventDispatchThread()) {
                             repaint();
@@ -60,10 +141,17 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
                         }
                     });
                 } else {
-                    drawable = new StaticDrawableImage(new File(image.metadata.path));
+                    showPreview();
+
+                    BufferedImage decoded = decodedImages.load(image, decoder);
+
+                    drawable = new StaticDrawableImage(decoded);
+                    reduced = decoded.getWidth() < image.metadata.width;
                 }
 
-                setAndValidateDrawableImage(image, drawable);
+                setAndValidateDrawableImage(this, drawable, reduced);
+            } catch (InterruptedIOException e) {
+                // superseded by another image
             } catch (Throwable e) {
                 Logger.log(e);
             }
@@ -73,7 +161,30 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
     public ImageView(NavigationHandler handler) {
         super();
 
+        decodedImages = new DecodedImageCache(DECODED_CACHE_SIZE, RenditionCache.getDefault(), RenditionCache.getScreenSize());
+        MemoryGovernor.getInstance().register(decodedImages, 10);
+
+        // Loads images one at a time, a new request replaces the waiting one so only the latest image is loaded
+        loader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread thread = new Thread(r, "image-loader");
+            thread.setDaemon(true);
+
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+
+        settleTimer = new Timer(SETTLE_DELAY, e -> {
+            isInteracting = false;
+            repaint();
+        });
+        settleTimer.setRepeats(false);
+
         addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragY = e.getY();
+            }
+
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (e.getButton() != 1) {
@@ -99,6 +210,27 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
             }
         });
         addMouseMotionListener(new MouseAdapter() {
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (null == image) {
+                    return;
+                }
+
+                Rectangle before = getImageBounds();
+
+                panX += e.getX() - dragX;
+                panY += e.getY() - dragY;
+                dragX = e.getX();
+                dragY = e.getY();
+
+                clampPan();
+
+                if (!getImageBounds().equals(before)) {
+                    interact();
+                    repaint();
+                }
+            }
+
             @Override
             public void mouseMoved(MouseEvent e) {
                 if (e.getX() < 100 || e.getX() > getWidth() - 100) {
@@ -115,6 +247,13 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
 
             }
         });
+        addMouseWheelListener(e -> zoomAt(e.getX(), e.getY(), e.getPreciseWheelRotation()));
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                clampPan();
+            }
+        });
     }
 
     public void setImage(Image image) {
@@ -129,6 +268,7 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
         this.image = image;
 
         zoomMode = defaultZoomMode;
+        panX = panY = 0;
 
         if (null != image) {
             this.image.addChangeListener(this);
@@ -137,8 +277,34 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
         this.updateImageDrawable();
     }
 
+    /**
+     * Decode images in the background which are likely to be shown next, in order of importance.
+     */
+    public void prefetch(List<Image> images) {
+        decodedImages.prefetch(images);
+    }
+
+    /**
+     * Release all resources held by the view.
+     */
+    public void dispose() {
+        setImage(null);
+
+        settleTimer.stop();
+        MemoryGovernor.getInstance().unregister(decodedImages);
+        decodedImages.dispose();
+        loader.shutdownNow();
+    }
+
     public void setZoomMode(ZoomMode mode) {
         zoomMode = mode;
+        panX = panY = 0;
+
+        if (isZoomed() && isReduced) {
+            showTiles();
+        } else if (!isZoomed() && drawableImage instanceof TiledDrawableImage) {
+            updateImageDrawable();
+        }
 
         repaint();
     }
@@ -188,44 +354,19 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
         Graphics2D g2d = (Graphics2D) g;
 
         if (null != drawableImage) {
-            double ratio = (double) image.metadata.width / (double) image.metadata.height;
-            int width, height;
-
-            if (zoomMode == ZoomMode.ACTUAL) {
-                width = image.metadata.width;
-                height = image.metadata.height;
-            } else {
-                width = getWidth();
-                height = getHeight();
-            }
-
-            if (zoomMode != ZoomMode.ACTUAL) {
-                if (ratio < 1.0) {
-                    width = (int) (ratio * height);
-                } else {
-                    height = (int) (width / ratio);
-                }
-
-                if (zoomMode == ZoomMode.FIT) {
-                    if (width > getWidth()) {
-                        width = getWidth();
-                        height = (int) (width / ratio);
-                    }
+            Rectangle bounds = getImageBounds();
 
-                    if (height > getHeight()) {
-                        height = getHeight();
-                        width = (int) (ratio * height);
-                    }
-                }
-            }
-
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            // Scaling with bilinear interpolation is too slow to keep up while zooming or panning
+            g2d.setRenderingHint(
+                    RenderingHints.KEY_INTERPOLATION,
+                    isInteracting ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR
+            );
             drawableImage.render(
                     g2d,
-                    (this.getWidth() - width) / 2,
-                    (this.getHeight() - height) / 2,
-                    width,
-                    height,
+                    bounds.x,
+                    bounds.y,
+                    bounds.width,
+                    bounds.height,
                     getWidth(),
                     getHeight(),
                     this
@@ -238,7 +379,7 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
             int offset = getWidth() - 10;
             int height = getHeight() - 10;
 
-            List<String> labels = image.metadata.labels;
+            List<String> labels = image.metadata.getLabels();
 
             for (int i = labels.size() - 1; i >= 0; i--) {
                 String label = labels.get(i);
@@ -289,6 +430,124 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
         }
     }
 
+    /**
+     * Return where the image is drawn in the view for the current zoom and pan.
+     */
+    private Rectangle getImageBounds() {
+        Dimension size = getImageSize();
+
+        return new Rectangle((getWidth() - size.width) / 2 + panX, (getHeight() - size.height) / 2 + panY, size.width, size.height);
+    }
+
+    /**
+     * Return the size the image is drawn at for the current zoom.
+     */
+    private Dimension getImageSize() {
+        double ratio = (double) image.metadata.width / (double) image.metadata.height;
+        int width, height;
+
+        if (zoomMode == ZoomMode.ACTUAL) {
+            width = image.metadata.width;
+            height = image.metadata.height;
+        } else if (zoomMode == ZoomMode.CUSTOM) {
+            width = Math.max(1, (int) Math.round(image.metadata.width * zoom));
+            height = Math.max(1, (int) Math.round(image.metadata.height * zoom));
+        } else {
+            width = getWidth();
+            height = getHeight();
+
+            if (ratio < 1.0) {
+                width = (int) (ratio * height);
+            } else {
+                height = (int) (width / ratio);
+            }
+
+            if (zoomMode == ZoomMode.FIT) {
+                if (width > getWidth()) {
+                    width = getWidth();
+                    height = (int) (width / ratio);
+                }
+
+                if (height > getHeight()) {
+                    height = getHeight();
+                    width = (int) (ratio * height);
+                }
+            }
+        }
+
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Zoom in or out by a number of wheel steps, keeping the point of the image below the cursor in place.
+     */
+    private void zoomAt(int x, int y, double steps) {
+        if (null == image || null == drawableImage || image.metadata.width <= 0 || image.metadata.height <= 0) {
+            return;
+        }
+
+        Rectangle bounds = getImageBounds();
+        double scale = bounds.width / (double) image.metadata.width;
+        double fit = Math.min(getWidth() / (double) image.metadata.width, getHeight() / (double) image.metadata.height);
+        double zoom = Math.max(Math.min(fit, 1.0), Math.min(MAX_ZOOM, scale * Math.pow(ZOOM_STEP, -steps)));
+
+        // Point of the image below the cursor, in pixels of the original
+        double u = (x - bounds.x) / scale, v = (y - bounds.y) / scale;
+
+        this.zoom = zoom;
+        panX = (int) Math.round(x - u * zoom - (getWidth() - image.metadata.width * zoom) / 2);
+        panY = (int) Math.round(y - v * zoom - (getHeight() - image.metadata.height * zoom) / 2);
+
+        if (zoomMode != ZoomMode.CUSTOM) {
+            zoomMode = ZoomMode.CUSTOM;
+
+            if (isReduced) {
+                showTiles();
+            }
+        }
+
+        clampPan();
+
+        interact();
+        repaint();
+    }
+
+    /**
+     * Mark the view as being zoomed or panned, it is drawn in full quality again once this stops.
+     */
+    private void interact() {
+        isInteracting = true;
+        settleTimer.restart();
+    }
+
+    /**
+     * Check if the image can be shown beyond the resolution of the cached images.
+     */
+    private boolean isZoomed() {
+        return zoomMode == ZoomMode.ACTUAL || zoomMode == ZoomMode.CUSTOM;
+    }
+
+    /**
+     * Limit panning so an image which is larger than the view always covers it, smaller images stay centered. This has
+     * to be called whenever the pan, the zoom or the size of the view changes.
+     */
+    private void clampPan() {
+        if (null == image) {
+            return;
+        }
+
+        Dimension size = getImageSize();
+
+        panX = clampPan(panX, size.width, getWidth());
+        panY = clampPan(panY, size.height, getHeight());
+    }
+
+    private static int clampPan(int pan, int size, int available) {
+        int max = Math.max(0, (size - available) / 2);
+
+        return Math.max(-max, Math.min(max, pan));
+    }
+
     @Override
     public void onChange(Image image) {
         repaint();
@@ -296,24 +555,70 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
 
     private void updateImageDrawable() {
         if (null != image) {
-            setDrawableImage(new StaticDrawableImage(image.thumb));
-            (new Thread(new LoadImageTask(image))).start();
+            BufferedImage decoded = decodedImages.get(image);
+
+            if (null != decoded) {
+                load(null);
+                setDrawableImage(new StaticDrawableImage(decoded), decoded.getWidth() < image.metadata.width);
+                return;
+            }
+
+            setDrawableImage(new StaticDrawableImage(image.thumb), false);
+            load(new LoadImageTask(image, getSize()));
         } else {
-            setDrawableImage(null);
+            load(null);
+            setDrawableImage(null, false);
+        }
+    }
+
+    /**
+     * Start loading an image, the load which is in progress is cancelled as its result is no longer needed.
+     */
+    private void load(LoadImageTask task) {
+        if (null != currentTask) {
+            currentTask.cancel();
+        }
+
+        currentTask = task;
+
+        if (null != task) {
+            loader.execute(task);
         }
     }
 
-    private void setDrawableImage(DrawableImage image) {
+    /**
+     * Show the original image in tiles, the cached images are only large enough for showing the image on the screen.
+     * Only the visible part of the original is decoded, the reduced image is shown until its tiles are ready.
+     */
+    private void showTiles() {
+        BufferedImage preview = decodedImages.get(image);
+
+        load(null);
+        setDrawableImage(new TiledDrawableImage(
+                new File(image.metadata.path),
+                image.metadata.width,
+                image.metadata.height,
+                null != preview ? preview : image.thumb,
+                () -> SwingUtilities.invokeLater(this::repaint)
+        ), false);
+    }
+
+    private void setDrawableImage(DrawableImage image, boolean reduced) {
         if (null != drawableImage) {
             drawableImage.dispose();
         }
 
         drawableImage = image;
+        isReduced = reduced;
 
         if (null != drawableImage) {
             drawableImage.start();
         }
 
+        if (isReduced && isZoomed()) {
+            showTiles();
+        }
+
         if (SwingUtilities.isEventDispatchThread()) {
             repaint();
         } else {
@@ -321,15 +626,24 @@ public class ImageView extends JPanel implements Image.ImageChangeListener {
         }
     }
 
-    private void setAndValidateDrawableImage(Image image, DrawableImage drawableImage) {
-        if (image != this.image) {
-            return;
-        }
+    /**
+     * Show the drawable loaded by a task. The task is checked on the event dispatch thread, so a task which has been
+     * superseded by the time the drawable arrives is never shown, its drawable is disposed instead.
+     */
+    private void setAndValidateDrawableImage(LoadImageTask task, DrawableImage drawableImage, boolean reduced) {
+        Runnable show = () -> {
+            if (task != currentTask || task.image != image) {
+                drawableImage.dispose();
+                return;
+            }
+
+            setDrawableImage(drawableImage, reduced);
+        };
 
         if (SwingUtilities.isEventDispatchThread()) {
-            setDrawableImage(drawableImage);
+            show.run();
         } else {
-            SwingUtilities.invokeLater(() -> setDrawableImage(drawableImage));
+            SwingUtilities.invokeLater(show);
         }
     }
 }
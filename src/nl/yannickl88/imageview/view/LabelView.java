@@ -5,7 +5,7 @@ import nl.yannickl88.imageview.view.input.LabelField;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.Map;
 
 public class LabelView extends JPanel {
     private final JPanel mainPanel;
@@ -16,7 +16,7 @@ public class LabelView extends JPanel {
         void onLabelRename(String oldLabel, String newLabel);
     }
 
-    public LabelView(Set<String> labels, ActionHandler handler) {
+    public LabelView(Map<String, Integer> labels, ActionHandler handler) {
         super();
         this.handler = handler;
 
@@ -36,8 +36,8 @@ public class LabelView extends JPanel {
         add(scrollPane, BorderLayout.CENTER);
     }
 
-    public void setLabels(Set<String> labels) {
-        ArrayList<String> sortedLabels = new ArrayList<>(labels);
+    public void setLabels(Map<String, Integer> labels) {
+        ArrayList<String> sortedLabels = new ArrayList<>(labels.keySet());
         sortedLabels.sort(String::compareTo);
 
         mainPanel.removeAll();
@@ -53,6 +53,7 @@ public class LabelView extends JPanel {
             rename.addActionListener(e -> handler.onLabelRename(l, label.getText()));
 
             rename.setEnabled(false);
+            actionPanel.add(new JLabel(String.format("%d images", labels.get(l))));
             actionPanel.add(rename);
 
             JButton delete = new JButton("Delete");
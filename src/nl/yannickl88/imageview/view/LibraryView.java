@@ -17,7 +17,9 @@ import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class LibraryView extends JFrame implements ClipboardOwner {
@@ -34,6 +36,7 @@ public class LibraryView extends JFrame implements ClipboardOwner {
     private LabelView labelEditor;
 
     private final JLabel status;
+    private final JLabel memoryStatus;
     private final JMenuItem menuEditCopy, menuEditDelete, menuEditLabel;
 
     public interface LabelSelectHandler {
@@ -200,6 +203,12 @@ public class LibraryView extends JFrame implements ClipboardOwner {
 
         status = new JLabel("");
         status.setPreferredSize(new Dimension(800, 20));
+        memoryStatus = new JLabel("");
+        memoryStatus.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.add(status, BorderLayout.CENTER);
+        statusBar.add(memoryStatus, BorderLayout.EAST);
 
         JScrollPane scrollPane = new JScrollPane(
                 this.overviewPanel,
@@ -218,7 +227,7 @@ public class LibraryView extends JFrame implements ClipboardOwner {
 
         mainPanel = new JPanel(new BorderLayout());
         mainPanel.add(scrollPane, BorderLayout.CENTER);
-        mainPanel.add(status, BorderLayout.SOUTH);
+        mainPanel.add(statusBar, BorderLayout.SOUTH);
 
         setLayout(new BorderLayout());
         add(searchPanel, BorderLayout.NORTH);
@@ -328,6 +337,9 @@ public class LibraryView extends JFrame implements ClipboardOwner {
             return;
         }
 
+        // Drop the views of images which are no longer in the library
+        thumbCache.keySet().retainAll(new HashSet<>(images));
+
         for (Image i : images) {
             ImageThumbView view;
             if (thumbCache.containsKey(i)) {
@@ -372,6 +384,10 @@ public class LibraryView extends JFrame implements ClipboardOwner {
         repaint();
     }
 
+    public void prefetchImages(List<Image> images) {
+        imagePanel.prefetch(images);
+    }
+
     public void setNavigationMode(ImageView.NavigationMode mode) {
         imagePanel.setNavigationMode(mode);
     }
@@ -388,7 +404,7 @@ public class LibraryView extends JFrame implements ClipboardOwner {
         }
     }
 
-    public void setAllLabels(Set<String> labels) {
+    public void setAllLabels(Map<String, Integer> labels) {
         if (null != labelEditor) {
             labelEditor.setLabels(labels);
         }
@@ -398,6 +414,17 @@ public class LibraryView extends JFrame implements ClipboardOwner {
         this.status.setText(status);
     }
 
+    public void setMemoryStatusText(String status) {
+        this.memoryStatus.setText(status);
+    }
+
+    @Override
+    public void dispose() {
+        imagePanel.dispose();
+
+        super.dispose();
+    }
+
     public void setViewMode(ImageView.ViewMode mode) {
         imagePanel.setViewMode(mode);
     }
@@ -452,7 +479,7 @@ public class LibraryView extends JFrame implements ClipboardOwner {
         }
     }
 
-    public void openLabelManager(Set<String> labels, LabelChangeHandler handler) {
+    public void openLabelManager(Map<String, Integer> labels, LabelChangeHandler handler) {
         JDialog dialog = new JDialog(this, "Manage labels", true);
         dialog.add(labelEditor = new LabelView(labels, new LabelView.ActionHandler() {
             @Override
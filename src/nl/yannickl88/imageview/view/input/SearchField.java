@@ -6,9 +6,9 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 
 /**
- * Input field for the search bar. This filters out any characters which are not allowed when searching. It also has an
- * action handler for changes in the search query (i.e., when there is typing) and when the user presses ESC to cancel
- * searching.
+ * Input field for the search bar. This filters out any characters which are not allowed when searching, which are
+ * labels and range terms such as {@code width:4000-}. It also has an action handler for changes in the search query
+ * (i.e., when there is typing) and when the user presses ESC to cancel searching.
  */
 public class SearchField extends JTextField {
     public interface ActionHandler {
@@ -42,7 +42,7 @@ public class SearchField extends JTextField {
         document.setDocumentFilter(new DocumentFilter() {
             @Override
             public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs) throws BadLocationException {
-                if (text.matches("^[a-z0-9- ]+$")) {
+                if (text.matches("^[a-z0-9:. -]+$")) {
                     super.replace(fb, offset, length, text, attrs);
 
                     handler.onSearch(getText());
@@ -51,7 +51,7 @@ public class SearchField extends JTextField {
 
             @Override
             public void insertString(FilterBypass fb, int offset, String string, AttributeSet attr) throws BadLocationException {
-                if (string.matches("^[a-z0-9- ]+$")) {
+                if (string.matches("^[a-z0-9:. -]+$")) {
                     super.insertString(fb, offset, string, attr);
 
                     handler.onSearch(getText());
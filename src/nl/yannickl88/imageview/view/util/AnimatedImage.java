@@ -1,5 +1,7 @@
 package nl.yannickl88.imageview.view.util;
 
+import nl.yannickl88.imageview.image.MemoryGovernor;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
@@ -11,6 +13,7 @@ public class AnimatedImage implements DrawableImage {
     private final AnimationHandler handler;
     private GifDecoder decoder = null;
     private AnimationTimer timer = null;
+    private ScaledImage frame = null;
 
     public interface AnimationHandler {
         void onUpdate();
@@ -95,7 +98,17 @@ public class AnimatedImage implements DrawableImage {
     @Override
     public void render(Graphics2D g2d, int x, int y, int width, int height, int totalWidth, int totalHeight, ImageObserver observer) {
         if (null != timer) {
-            g2d.drawImage(timer.getDrawable(), x, y, width, height, observer);
+            BufferedImage drawable = timer.getDrawable();
+
+            // Only scale a frame once, repaints in between frames draw the scaled frame again
+            if (null == frame) {
+                frame = new ScaledImage(drawable);
+                MemoryGovernor.getInstance().register(frame, ScaledImage.CACHE_PRIORITY);
+            } else {
+                frame.setSource(drawable);
+            }
+
+            frame.draw(g2d, x, y, width, height, totalWidth, totalHeight, observer);
 
             // Draw a timeline bar
             g2d.setColor(new Color(87, 133, 158, 128));
@@ -121,5 +134,11 @@ public class AnimatedImage implements DrawableImage {
             } catch (InterruptedException ignored) {
             }
         }
+
+        if (null != frame) {
+            MemoryGovernor.getInstance().unregister(frame);
+            frame.flush();
+            frame = null;
+        }
     }
 }
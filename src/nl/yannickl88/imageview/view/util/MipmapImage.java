@@ -0,0 +1,88 @@
+package nl.yannickl88.imageview.view.util;
+
+import nl.yannickl88.imageview.image.ImageCache;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.ArrayList;
+
+/**
+ * Image with a pyramid of copies which are each half the size of the previous one. Drawing at any size uses the
+ * smallest copy which is still at least as large, so scaling never reduces an image by more than half in one step. This
+ * keeps the detail of the image while the cost of drawing only depends on the size it is drawn at.
+ *
+ * Levels are made the first time they are needed. They can be released from any thread, for instance when memory runs
+ * low, and are made again the next time they are needed.
+ */
+public class MipmapImage {
+    private final ArrayList<BufferedImage> levels;
+    private volatile long usedBytes = 0;
+
+    public MipmapImage(BufferedImage source) {
+        levels = new ArrayList<>();
+        levels.add(source);
+    }
+
+    public synchronized BufferedImage getSource() {
+        return levels.get(0);
+    }
+
+    /**
+     * Return the smallest level which is at least the given size, levels which do not exist yet are made.
+     */
+    public synchronized BufferedImage getLevel(int width, int height) {
+        int level = 0;
+
+        while (true) {
+            BufferedImage current = levels.get(level);
+            int w = current.getWidth() / 2, h = current.getHeight() / 2;
+
+            if (w < Math.max(1, width) || h < Math.max(1, height)) {
+                return current;
+            }
+
+            level++;
+
+            if (level == levels.size()) {
+                BufferedImage half = half(current, w, h);
+
+                levels.add(half);
+                usedBytes += ImageCache.getByteSize(half);
+            }
+        }
+    }
+
+    /**
+     * Draw the image scaled to the given size.
+     */
+    public void draw(Graphics2D g2d, int x, int y, int width, int height, ImageObserver observer) {
+        g2d.drawImage(getLevel(width, height), x, y, width, height, observer);
+    }
+
+    /**
+     * Return the number of bytes used by the levels made from the source, the source itself is not counted.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Release all levels made from the source.
+     */
+    public synchronized void flush() {
+        levels.subList(1, levels.size()).clear();
+        usedBytes = 0;
+    }
+
+    private static BufferedImage half(BufferedImage image, int width, int height) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage half = new BufferedImage(width, height, type);
+        Graphics2D g2d = half.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.dispose();
+
+        return half;
+    }
+}
@@ -0,0 +1,151 @@
+package nl.yannickl88.imageview.view.util;
+
+import nl.yannickl88.imageview.image.ImageCache;
+import nl.yannickl88.imageview.image.MemoryGovernor;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+
+/**
+ * Image which keeps a copy of itself scaled to the size it is drawn at. The copy uses the format of the screen it is
+ * drawn on, so drawing it again at the same size is a plain copy of pixels instead of scaling the source on every
+ * repaint.
+ *
+ * While the size keeps changing, for instance while zooming, the image is drawn from the closest level of its
+ * {@see MipmapImage} instead. The copy is made once the image is drawn at the same size twice in a row.
+ *
+ * The source can be replaced, for instance by the next frame of an animation. The size it is drawn at is kept, so a new
+ * source drawn at the same size is scaled right away, into the copy of the previous source.
+ *
+ * The copy and the levels of the mipmap can be released by the {@see MemoryGovernor}, the copy is owned by the event
+ * dispatch thread and is released there. Both are made again the next time the image is drawn.
+ */
+public class ScaledImage implements MemoryGovernor.ManagedCache {
+    /**
+     * Priority for registering scaled images with the memory governor. Scaled copies are the cheapest to make again, so
+     * they are released before any other cache.
+     */
+    public static final int CACHE_PRIORITY = 0;
+    /**
+     * The scaled copy is only kept while it is at most this many times the area it is drawn in, larger copies would use
+     * a lot of memory for pixels which are not visible.
+     */
+    private static final int MAX_AREA_FACTOR = 4;
+
+    private volatile MipmapImage mipmap;
+    private volatile long scaledBytes = 0;
+    private BufferedImage scaled = null;
+    private boolean isStale = false;
+    private GraphicsConfiguration config = null;
+    private int lastWidth = -1, lastHeight = -1;
+
+    public ScaledImage(BufferedImage source) {
+        this.mipmap = new MipmapImage(source);
+    }
+
+    public BufferedImage getSource() {
+        return mipmap.getSource();
+    }
+
+    /**
+     * Replace the source of the image, the scaled copy is updated the next time the image is drawn.
+     */
+    public void setSource(BufferedImage source) {
+        if (source != mipmap.getSource()) {
+            mipmap = new MipmapImage(source);
+            isStale = true;
+        }
+    }
+
+    /**
+     * Draw the image at the given size, the total size is the size of the area which is drawn in.
+     */
+    public void draw(Graphics2D g2d, int x, int y, int width, int height, int totalWidth, int totalHeight, ImageObserver observer) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        GraphicsConfiguration config = g2d.getDeviceConfiguration();
+        int transparency = getSource().getColorModel().getTransparency();
+        boolean fits = null != scaled
+                && scaled.getWidth() == width
+                && scaled.getHeight() == height
+                && scaled.getTransparency() == transparency
+                && config == this.config;
+
+        if (fits && !isStale) {
+            g2d.drawImage(scaled, x, y, observer);
+
+            return;
+        }
+
+        boolean settled = width == lastWidth && height == lastHeight;
+
+        lastWidth = width;
+        lastHeight = height;
+
+        if (!settled || (long) width * height > (long) MAX_AREA_FACTOR * totalWidth * totalHeight) {
+            scaled = null;
+            scaledBytes = 0;
+            mipmap.draw(g2d, x, y, width, height, observer);
+
+            return;
+        }
+
+        if (!fits) {
+            scaled = config.createCompatibleImage(width, height, transparency);
+            scaledBytes = ImageCache.getByteSize(scaled);
+            this.config = config;
+        }
+
+        scale(scaled);
+        isStale = false;
+
+        g2d.drawImage(scaled, x, y, observer);
+    }
+
+    /**
+     * Release the scaled copy and the levels of the mipmap.
+     */
+    public void flush() {
+        scaled = null;
+        scaledBytes = 0;
+        config = null;
+
+        mipmap.flush();
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return scaledBytes + mipmap.getUsedBytes();
+    }
+
+    /**
+     * Release the scaled copy and the levels of the mipmap when they use more than the given bytes. The copy is no
+     * longer counted right away, while it is released on the event dispatch thread.
+     */
+    @Override
+    public void shrinkTo(long bytes) {
+        if (getUsedBytes() <= bytes) {
+            return;
+        }
+
+        scaledBytes = 0;
+        mipmap.flush();
+
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    /**
+     * Draw the source scaled into the copy, replacing all of its pixels.
+     */
+    private void scale(BufferedImage copy) {
+        Graphics2D g2d = copy.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        mipmap.draw(g2d, 0, 0, copy.getWidth(), copy.getHeight(), null);
+        g2d.dispose();
+    }
+}
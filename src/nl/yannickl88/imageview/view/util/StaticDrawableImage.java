@@ -1,5 +1,6 @@
 package nl.yannickl88.imageview.view.util;
 
+import nl.yannickl88.imageview.image.MemoryGovernor;
 import nl.yannickl88.imageview.logging.Logger;
 
 import javax.imageio.ImageIO;
@@ -10,28 +11,29 @@ import java.io.File;
 import java.io.IOException;
 
 public class StaticDrawableImage implements DrawableImage {
-    private final BufferedImage drawable;
+    private final ScaledImage drawable;
 
     public StaticDrawableImage(File file) throws IOException {
-        this.drawable = ImageIO.read(file);
+        this(ImageIO.read(file));
     }
 
     public StaticDrawableImage(BufferedImage image) {
-        this.drawable = image;
+        this.drawable = new ScaledImage(image);
     }
 
     @Override
     public void render(Graphics2D g2d, int x, int y, int width, int height, int totalWidth, int totalHeight, ImageObserver observer) {
-        g2d.drawImage(this.drawable, x, y, width, height, observer);
+        drawable.draw(g2d, x, y, width, height, totalWidth, totalHeight, observer);
     }
 
     @Override
     public void start() {
-
+        MemoryGovernor.getInstance().register(drawable, ScaledImage.CACHE_PRIORITY);
     }
 
     @Override
     public void dispose() {
-
+        MemoryGovernor.getInstance().unregister(drawable);
+        drawable.flush();
     }
 }
@@ -0,0 +1,410 @@
+package nl.yannickl88.imageview.view.util;
+
+import nl.yannickl88.imageview.image.ImageCache;
+import nl.yannickl88.imageview.image.ImageDecoder;
+import nl.yannickl88.imageview.image.MemoryGovernor;
+import nl.yannickl88.imageview.image.RenditionCache;
+import nl.yannickl88.imageview.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Drawable for very large images which are zoomed in beyond the resolution of their preview. Only the tiles of the
+ * image which are visible are decoded, using the source region of the image reader, so the image never has to be
+ * decoded completely. Until a tile is decoded, the preview is drawn in its place.
+ *
+ * Tiles form a pyramid of levels, each level has half the resolution of the previous one and is decoded by skipping
+ * rows and columns of the original. The coarsest level which still has at least the resolution the image is drawn at
+ * is used, so the number of decoded pixels depends on the size of the screen and not on the size of the image.
+ *
+ * Decoded tiles are kept in a least recently used cache which is large enough for the screen and the tiles around it.
+ * The tiles directly around the visible ones are decoded after the visible tiles, so they are ready when panning. While
+ * the image is shown, the cache is registered with the {@see MemoryGovernor}, so tiles are released when memory runs
+ * low. They are released before decoded images, as only the visible tiles have to be decoded again.
+ */
+public class TiledDrawableImage implements DrawableImage, MemoryGovernor.ManagedCache {
+    private static final int TILE_SIZE = 512;
+    private static final int CACHE_PRIORITY = 5;
+
+    private final File file;
+    private final int width, height;
+    private final MipmapImage preview;
+    private final UpdateHandler handler;
+    private final ImageCache<Tile, BufferedImage> tiles;
+    private final ArrayList<Tile> wanted;
+    private Rectangle visible = null;
+    private int visibleLevel = -1;
+    private TileDecoder decoder = null;
+
+    public interface UpdateHandler {
+        void onUpdate();
+    }
+
+    private static class Tile {
+        private final int level, column, row;
+
+        private Tile(int level, int column, int row) {
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile)) {
+                return false;
+            }
+
+            Tile tile = (Tile) o;
+
+            return level == tile.level && column == tile.column && row == tile.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (level * 31 + column) * 31 + row;
+        }
+    }
+
+    /**
+     * Block of tiles on a single level which are decoded in one read.
+     */
+    private static class Block {
+        private final int level;
+        private final Rectangle tiles;
+
+        private Block(int level, Rectangle tiles) {
+            this.level = level;
+            this.tiles = tiles;
+        }
+    }
+
+    /**
+     * Thread decoding the wanted tiles. The reader is kept open, so the header of the image is only read once.
+     */
+    private class TileDecoder extends Thread {
+        private volatile boolean running = true;
+        private volatile ImageReader reader = null;
+
+        public TileDecoder() {
+            super("tile-decoder");
+
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+                Iterator<ImageReader> readers = null == in ? null : ImageIO.getImageReaders(in);
+
+                if (null == readers || !readers.hasNext()) {
+                    throw new IOException("Unsupported image " + file);
+                }
+
+                reader = readers.next();
+                reader.setInput(in, false, true);
+                ImageDecoder.abortWhen(reader, () -> !running);
+
+                try {
+                    while (running) {
+                        decodeRegion(takeRegion());
+                    }
+                } finally {
+                    reader.dispose();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    Logger.log(e);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+
+        /**
+         * Decode a block of tiles in one read and split it into tiles. Most formats have to go through all rows above
+         * a region, so decoding the tiles next to each other at once is much faster than decoding them one by one.
+         */
+        private void decodeRegion(Block taken) throws IOException {
+            ImageReadParam param = reader.getDefaultReadParam();
+            Rectangle block = taken.tiles;
+            int span = TILE_SIZE << taken.level, subsampling = 1 << taken.level;
+            Rectangle region = new Rectangle(
+                    block.x * span,
+                    block.y * span,
+                    block.width * span,
+                    block.height * span
+            ).intersection(new Rectangle(0, 0, width, height));
+
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+            BufferedImage decoded = reader.read(0, param);
+
+            if (!running || null == decoded) {
+                return;
+            }
+
+            int type = decoded.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+            for (int row = block.y; row < block.y + block.height; row++) {
+                for (int column = block.x; column < block.x + block.width; column++) {
+                    int x = (column - block.x) * TILE_SIZE, y = (row - block.y) * TILE_SIZE;
+                    int w = Math.min(TILE_SIZE, decoded.getWidth() - x), h = Math.min(TILE_SIZE, decoded.getHeight() - y);
+
+                    if (w <= 0 || h <= 0) {
+                        continue;
+                    }
+
+                    BufferedImage tile = new BufferedImage(w, h, type);
+                    Graphics2D g2d = tile.createGraphics();
+                    g2d.drawImage(decoded.getSubimage(x, y, w, h), 0, 0, null);
+                    g2d.dispose();
+
+                    tiles.put(new Tile(taken.level, column, row), tile);
+                }
+            }
+
+            handler.onUpdate();
+        }
+
+        public void dispose() {
+            running = false;
+
+            ImageReader reader = this.reader;
+
+            if (null != reader) {
+                ImageDecoder.abort(reader);
+            }
+
+            interrupt();
+        }
+    }
+
+    /**
+     * Create a tiled drawable for an image file of the given size, the preview can be of any size.
+     */
+    public TiledDrawableImage(File file, int width, int height, BufferedImage preview, UpdateHandler handler) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.preview = new MipmapImage(preview);
+        this.handler = handler;
+
+        // The level used can have up to 2 times the resolution of the screen in each dimension
+        Dimension screen = RenditionCache.getScreenSize();
+        int columns = (screen.width * 2 + TILE_SIZE - 1) / TILE_SIZE + 1;
+        int rows = (screen.height * 2 + TILE_SIZE - 1) / TILE_SIZE + 1;
+        long maxTiles = (long) (columns + 2) * (rows + 2);
+
+        tiles = ImageCache.withMaxBytes(maxTiles * TILE_SIZE * TILE_SIZE * 4);
+        wanted = new ArrayList<>();
+    }
+
+    @Override
+    public void render(Graphics2D g2d, int x, int y, int width, int height, int totalWidth, int totalHeight, ImageObserver observer) {
+        preview.draw(g2d, x, y, width, height, observer);
+
+        // The preview has enough detail, no tiles needed
+        if (width <= preview.getSource().getWidth()) {
+            return;
+        }
+
+        double scale = width / (double) this.width;
+        int level = getLevel(scale);
+        int span = TILE_SIZE << level;
+
+        Rectangle view = new Rectangle(0, 0, totalWidth, totalHeight);
+        Rectangle clip = g2d.getClipBounds();
+
+        if (null != clip) {
+            view = view.intersection(clip);
+        }
+
+        // Part of the image which is visible, in tiles
+        int left = Math.max(0, (int) Math.floor((view.x - x) / scale / span));
+        int top = Math.max(0, (int) Math.floor((view.y - y) / scale / span));
+        int right = Math.min(getColumns(level) - 1, (int) Math.floor((view.x + view.width - 1 - x) / scale / span));
+        int bottom = Math.min(getRows(level) - 1, (int) Math.floor((view.y + view.height - 1 - y) / scale / span));
+
+        if (right < left || bottom < top) {
+            return;
+        }
+
+        request(level, new Rectangle(left, top, right - left + 1, bottom - top + 1));
+
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                BufferedImage tile = tiles.get(new Tile(level, column, row));
+
+                if (null == tile) {
+                    continue;
+                }
+
+                // Position tiles by the part of the original they cover, so tiles on any level line up without seams
+                int tx = x + (int) Math.floor(column * span * scale);
+                int ty = y + (int) Math.floor(row * span * scale);
+                int tw = x + (int) Math.floor(Math.min((column + 1) * span, this.width) * scale) - tx;
+                int th = y + (int) Math.floor(Math.min((row + 1) * span, this.height) * scale) - ty;
+
+                g2d.drawImage(tile, tx, ty, tw, th, observer);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        MemoryGovernor.getInstance().register(this, CACHE_PRIORITY);
+
+        decoder = new TileDecoder();
+        decoder.start();
+    }
+
+    @Override
+    public void dispose() {
+        MemoryGovernor.getInstance().unregister(this);
+
+        if (null != decoder) {
+            decoder.dispose();
+        }
+
+        tiles.clear();
+
+        synchronized (this) {
+            wanted.clear();
+        }
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return tiles.getWeight() + preview.getUsedBytes();
+    }
+
+    /**
+     * Release the least recently used tiles, and the levels of the preview when releasing all tiles is not enough. The
+     * visible tiles are requested again on the next render, so released tiles which are still visible are decoded
+     * again.
+     */
+    @Override
+    public void shrinkTo(long bytes) {
+        if (preview.getUsedBytes() > bytes) {
+            preview.flush();
+        }
+
+        tiles.trimTo(Math.max(0, bytes - preview.getUsedBytes()));
+
+        synchronized (this) {
+            visible = null;
+            visibleLevel = -1;
+            wanted.clear();
+        }
+
+        handler.onUpdate();
+    }
+
+    /**
+     * Request the tiles which are visible followed by the tiles around them, tiles which were requested before but are
+     * no longer needed are not decoded.
+     */
+    private synchronized void request(int level, Rectangle visible) {
+        if (level == visibleLevel && visible.equals(this.visible)) {
+            return;
+        }
+
+        this.visible = visible;
+        this.visibleLevel = level;
+
+        wanted.clear();
+
+        for (int row = visible.y; row < visible.y + visible.height; row++) {
+            for (int column = visible.x; column < visible.x + visible.width; column++) {
+                wanted.add(new Tile(level, column, row));
+            }
+        }
+
+        Rectangle around = new Rectangle(visible.x - 1, visible.y - 1, visible.width + 2, visible.height + 2)
+                .intersection(new Rectangle(0, 0, getColumns(level), getRows(level)));
+
+        for (int row = around.y; row < around.y + around.height; row++) {
+            for (int column = around.x; column < around.x + around.width; column++) {
+                if (!visible.contains(column, row)) {
+                    wanted.add(new Tile(level, column, row));
+                }
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Wait for wanted tiles which are not decoded yet, and return the block of tiles which contains them. Missing tiles
+     * which are visible are returned first, followed by the missing tiles around them. The tiles around the visible ones
+     * are returned as the four edges of the ring, so the visible tiles are not decoded again.
+     */
+    private synchronized Block takeRegion() throws InterruptedException {
+        while (true) {
+            wanted.removeIf(tiles::has);
+
+            if (!wanted.isEmpty()) {
+                Rectangle[] regions = {
+                        visible,
+                        new Rectangle(visible.x - 1, visible.y - 1, visible.width + 2, 1),
+                        new Rectangle(visible.x - 1, visible.y + visible.height, visible.width + 2, 1),
+                        new Rectangle(visible.x - 1, visible.y, 1, visible.height),
+                        new Rectangle(visible.x + visible.width, visible.y, 1, visible.height),
+                };
+
+                for (Rectangle region : regions) {
+                    Rectangle block = null;
+
+                    for (Tile tile : wanted) {
+                        if (region.contains(tile.column, tile.row)) {
+                            Rectangle r = new Rectangle(tile.column, tile.row, 1, 1);
+                            block = null == block ? r : block.union(r);
+                        }
+                    }
+
+                    if (null != block) {
+                        Rectangle taken = block;
+                        wanted.removeIf(tile -> taken.contains(tile.column, tile.row));
+
+                        return new Block(visibleLevel, block);
+                    }
+                }
+
+                wanted.clear();
+            }
+
+            wait();
+        }
+    }
+
+    /**
+     * Return the coarsest level which has at least the resolution of the scale the image is drawn at, level n has
+     * 1 / 2^n times the resolution of the original.
+     */
+    private static int getLevel(double scale) {
+        return Math.max(0, (int) Math.floor(Math.log(1 / scale) / Math.log(2)));
+    }
+
+    private int getColumns(int level) {
+        int span = TILE_SIZE << level;
+
+        return (width + span - 1) / span;
+    }
+
+    private int getRows(int level) {
+        int span = TILE_SIZE << level;
+
+        return (height + span - 1) / span;
+    }
+}